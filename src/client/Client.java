@@ -107,7 +107,7 @@ public class Client implements Runnable {
         System.out.println("3." + " Request a list of all connected clients");
         System.out.println("4." + " {\"recipient\":\"<username>\", \"message\":\"<message>\"}: Send a private message to a specific client");
         System.out.println("5. Start a guessing game");
-        System.out.println("6. Join an existing guessing game");
+        System.out.println("6." + " <game id>: Join an existing guessing game, or the oldest open one with 0");
         System.out.println("7." + " <number>: Make a guess during a guessing game");
         System.out.println("8." + " {\"recipient\":\"<username>\", \"filename\":\"<filename>\"}: Send a file.txt to another user");
         System.out.println("9." + " {\"status\":\"OK\", \"transferId\":\"<UUID>\"}: Accept a pending file.txt transfer request");
@@ -141,7 +141,11 @@ public class Client implements Runnable {
         clientManager.logException(message, e);
     }
 
-    private void joinGuessingGame() throws JsonProcessingException { clientManager.sendJoinGame(); }
+    private void joinGuessingGame() throws JsonProcessingException {
+        System.out.println("Enter the game id, or 0 to join the oldest open game: ");
+        long gameId = s.nextLong();
+        clientManager.sendJoinGame(gameId);
+    }
 
     private void sendGuess() throws JsonProcessingException {
         System.out.println("Enter your guess: ");
@@ -150,14 +154,21 @@ public class Client implements Runnable {
     }
 
     private void handleHandshakeSending(){
-        System.out.println("Enter the receiver's username: ");
-        String receiver = s.next();
+        System.out.println("Enter the receiver's username, or several separated by commas: ");
+        List<String> receivers = Arrays.stream(s.next().split(",")).filter(name -> !name.isEmpty()).toList();
         s.nextLine();
         System.out.print("Enter the filename: ");
         String filename = s.nextLine();
 
+        // A file for several users is always stored on the server, which delivers it to each of them
+        boolean spool = receivers.size() > 1;
+        if (!spool) {
+            System.out.print("Store it on the server until the receiver downloads it? (y/N): ");
+            spool = s.nextLine().trim().equalsIgnoreCase("y");
+        }
+
         try {
-            clientManager.sendFile(receiver, filename);
+            clientManager.sendFile(receivers, filename, spool);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
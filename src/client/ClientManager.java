@@ -2,7 +2,6 @@ package client;
 
 import com.fasterxml.jackson.core.*;
 import org.slf4j.*;
-import com.fasterxml.jackson.databind.*;
 import org.json.*;
 import shared.*;
 
@@ -12,11 +11,14 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.net.Socket;
+import java.nio.*;
+import java.nio.channels.*;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.UUID;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import static client.ServerMessageHandler.*;
 import static shared.Constant.*;
@@ -30,18 +32,17 @@ import static shared.Constant.*;
 public class ClientManager implements Runnable {
 
     private Socket socket;
-    private BufferedReader is;
+    private InputStream is;
+    private final FrameDecoder decoder = new FrameDecoder();
     private PrintWriter os;
     private String username;
     private volatile boolean loggedIn = true;
-    private final ObjectMapper mapper = new ObjectMapper();
     ServerMessageHandler handler;
     private static final Logger logger = LoggerFactory.getLogger(ClientManager.class);
     private KeyPair keyPair;
     private SecretKey sessionKey;
     private String encryptedMessage;
     private FileTransferResponse fileTransferResponse;
-    private Socket fileTransferSocket;
 
 
 
@@ -63,7 +64,7 @@ public class ClientManager implements Runnable {
 
         try {
             socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-            is = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            is = socket.getInputStream();
             os = new PrintWriter(socket.getOutputStream(), true);
 
             handleWelcomeMessage();
@@ -85,38 +86,13 @@ public class ClientManager implements Runnable {
     public void run() {
 
         while (loggedIn) {
-            String serverData;
-
             try {
-                serverData = is.readLine();
-
-                if (serverData == null) {
-                    // Handle the case where serverData is null
+                if (!decoder.readFrame(is, this::handleServerFrame)) {
+                    // Handle the case where the server closed the connection
                     logger.warn("Server data is null");
                     break;
                 }
 
-                // Check the loggedIn status before processing messages
-                if (!loggedIn) {
-                    break;
-                }
-
-                String[] message = serverData.split(" ", 2);
-
-                handlePingPong(message[0]);
-
-                if (message.length > 1) {
-
-                    if (messagesRequiresResponse(message[0])) {
-                        handleMessagesThatNeedsResponseAfterReceiving(message[0], message[1]);
-                    } else {
-                        handler.handleServerMessage(message[0], message[1]);
-                    }
-
-                } else {
-                    handler.handleServerMessage(message[0], null);
-                }
-
             } catch (IOException e) {
                 System.out.println("SORRY, WE LOST SUDDENLY THE CONNECTION TO SERVER. CLIENT WILL CLOSE....");
                 System.exit(0);
@@ -126,6 +102,28 @@ public class ClientManager implements Runnable {
     }
 
 
+    /**
+     * Dispatches a single frame received from the server.
+     *
+     * @param header  The message header.
+     * @param payload The message payload, only valid during this call.
+     */
+    private void handleServerFrame(String header, Payload payload) {
+        // Check the loggedIn status before processing messages
+        if (!loggedIn) {
+            return;
+        }
+
+        handlePingPong(header);
+
+        if (messagesRequiresResponse(header)) {
+            handleMessagesThatNeedsResponseAfterReceiving(header, payload);
+        } else {
+            handler.handleServerMessage(header, payload);
+        }
+    }
+
+
     protected String getErrorMessage(int code) {
         return getMessage(code);
     }
@@ -155,7 +153,7 @@ public class ClientManager implements Runnable {
      * @throws JsonProcessingException If there is an error processing the JSON.
      */
     public void broadcastMessage(String berichten) throws JsonProcessingException {
-        String jsonMessage = BROADCAST_REQ + " " + mapper.writeValueAsString(berichten);
+        String jsonMessage = BROADCAST_REQ + " " + Codec.writeAsString(berichten);
         os.println(jsonMessage);
     }
 
@@ -167,7 +165,7 @@ public class ClientManager implements Runnable {
 
 
         try {
-            String welcomeMessage = is.readLine();
+            decoder.readFrame(is, (header, payload) -> { });
             System.out.println("WELCOME TO SERVER 1337");
         } catch (IOException e) {
             logger.error("Error while handling welcome message");
@@ -196,7 +194,7 @@ public class ClientManager implements Runnable {
     public void sendListUsersRequest() throws JsonProcessingException {
         ListOfUsers listUsersRequest = new ListOfUsers();
 
-        String jsonMessage = LIST_USERS_REQ + " " + mapper.writeValueAsString(listUsersRequest);
+        String jsonMessage = LIST_USERS_REQ + " " + Codec.writeAsString(listUsersRequest);
         os.println(jsonMessage);
     }
 
@@ -213,7 +211,7 @@ public class ClientManager implements Runnable {
         privateMessageRequest.setReceiver(recipient);
         privateMessageRequest.setMessage(message);
 
-        String jsonMessage = PRIVATE_MESSAGE_REQ + " " + mapper.writeValueAsString(privateMessageRequest);
+        String jsonMessage = PRIVATE_MESSAGE_REQ + " " + Codec.writeAsString(privateMessageRequest);
         os.println(jsonMessage);
     }
 
@@ -225,7 +223,7 @@ public class ClientManager implements Runnable {
      */
     public void sendStartGameRequest() throws JsonProcessingException {
         StartGuessingGame startGameRequest = new StartGuessingGame();
-        String jsonMessage = START_GAME_REQ + " " + mapper.writeValueAsString(startGameRequest);
+        String jsonMessage = START_GAME_REQ + " " + Codec.writeAsString(startGameRequest);
         os.println(jsonMessage);
     }
 
@@ -233,11 +231,13 @@ public class ClientManager implements Runnable {
     /**
      * Sends a request to the server to join an existing game.
      *
+     * @param gameId The id of the game to join, or 0 for the oldest game that is waiting for players.
      * @throws JsonProcessingException If there is an error processing the JSON.
      */
-    public void sendJoinGame() throws JsonProcessingException {
+    public void sendJoinGame(long gameId) throws JsonProcessingException {
         JoinGame joinGameRequest = new JoinGame();
-        String jsonMessage = JOIN_GAME_REQ + " " + mapper.writeValueAsString(joinGameRequest);
+        joinGameRequest.setGameId(gameId);
+        String jsonMessage = JOIN_GAME_REQ + " " + Codec.writeAsString(joinGameRequest);
         os.println(jsonMessage);
     }
 
@@ -252,7 +252,7 @@ public class ClientManager implements Runnable {
         GuessingGame guessNumber = new GuessingGame();
         guessNumber.setNumber(guess);
 
-        String jsonMessage = GUESS_NUMBER_REQ + " " + mapper.writeValueAsString(guessNumber);
+        String jsonMessage = GUESS_NUMBER_REQ + " " + Codec.writeAsString(guessNumber);
         os.println(jsonMessage);
     }
 
@@ -263,20 +263,41 @@ public class ClientManager implements Runnable {
 
 
     /**
-     * Sends a file.txt transfer request to another user.
+     * Sends a file.txt transfer request to one or more users.
      *
-     * @param receiver The recipient of the file.txt.
-     * @param filename The name of the file.txt.
+     * @param receivers The recipients of the file.txt; a file for several of them must be spooled.
+     * @param filename  The name of the file.txt.
+     * @param spool     True to store the file on the server, so the receivers can download it later.
      * @throws JsonProcessingException If there is an error processing the JSON.
      */
-    public void sendFile(String receiver, String filename) throws JsonProcessingException {
+    public void sendFile(List<String> receivers, String filename, boolean spool) throws JsonProcessingException {
+        File file = new File(filename);
+
+        if (!file.isFile()) {
+            System.out.println("File not found: " + filename);
+            return;
+        }
+
+        // The sender picks the transfer id, so every resume of this transfer can find the file again
+        UUID transferId = UUID.randomUUID();
+        FileTransferHandler.registerOutgoingFile(transferId, file);
 
         FileTransferRequest fileRequest = new FileTransferRequest();
-        fileRequest.setFilename(filename);
-        fileRequest.setReceiver(receiver);
+        fileRequest.setFilename(file.getName());
+        fileRequest.setSize(file.length());
+        fileRequest.setTransferId(transferId);
+        fileRequest.setStreams(FileTransferHandler.streamsFor(file.length()));
+        fileRequest.setSpool(spool);
+        fileRequest.setContentHash(FileTransferHandler.knownContentHash(file));
+        fileRequest.setCodecs(TransferCodec.offer(file.getName()));
+        if (receivers.size() == 1) {
+            fileRequest.setReceiver(receivers.get(0));
+        } else {
+            fileRequest.setReceivers(receivers);
+        }
         fileRequest.setSender(username);
 
-        String jsonMessage = FILE_TRANSFER_REQUEST + " " + mapper.writeValueAsString(fileRequest);
+        String jsonMessage = FILE_TRANSFER_REQUEST + " " + Codec.writeAsString(fileRequest);
         os.println(jsonMessage);
     }
 
@@ -286,24 +307,28 @@ public class ClientManager implements Runnable {
      *
      * @param serverData The data received from the server.
      */
-    public void sendFileResponse(String serverData) {
-
-        ObjectMapper objectMapper = new ObjectMapper();
+    public void sendFileResponse(Payload serverData) {
 
         FileTransferRequest fileTransferRequest;
 
         try {
-            fileTransferRequest = objectMapper.readValue(serverData, FileTransferRequest.class);
+            fileTransferRequest = serverData.read(FileTransferRequest.class);
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
-        System.out.println("File Transfer request received from " + fileTransferRequest.getSender() + ": " + fileTransferRequest.getFilename());
+        System.out.println("File Transfer request received from " + fileTransferRequest.getSender() + ": " +
+                fileTransferRequest.getFilename() + " (" + fileTransferRequest.getSize() + " bytes)" +
+                (fileTransferRequest.isSpool() ? ", stored on the server" : ""));
         String sender = fileTransferRequest.getSender();
 
         fileTransferResponse = new FileTransferResponse();
         fileTransferResponse.setSender(sender);
+        fileTransferResponse.setTransferId(fileTransferRequest.getTransferId() != null
+                ? fileTransferRequest.getTransferId() : UUID.randomUUID());
+        fileTransferResponse.setStreams(Math.max(1, Math.min(fileTransferRequest.getStreams(), FILE_TRANSFER_STREAMS)));
+        fileTransferResponse.setCodec(TransferCodec.negotiate(fileTransferRequest.getCodecs()));
 
         System.out.println("9- YES \n10- NO ");
 
@@ -312,38 +337,61 @@ public class ClientManager implements Runnable {
 
 
     /**
-     * Accepts a pending file.txt transfer request.
+     * Accepts a pending file transfer request.
      */
     public void acceptFile() {
 
-
         if (fileTransferResponse != null) {
-            fileTransferResponse.setStatus("OK");
-            UUID uuid = UUID.randomUUID();
-            fileTransferResponse.setTransferId(uuid);
             System.out.println(fileTransferResponse.getTransferId().toString());
+            requestFileTransfer(fileTransferResponse, 0);
 
-            try {
-                String jsonMessage = FILE_TRANSFER_RESPONSE + " " + mapper.writeValueAsString(fileTransferResponse);
-                os.println(jsonMessage);
+        } else {
+            System.out.println("there is no pending file.txt requests");
+        }
 
-                fileTransferSocket = new Socket("127.0.0.1", 1338);
-                fileTransferSocket.getOutputStream().write("R".getBytes());
-                fileTransferSocket.getOutputStream().write(uuid.toString().getBytes());
-                fileTransferSocket.getOutputStream().flush();
+    }
 
 
-                new Thread(() -> handleFileReceive(uuid.toString())).start();
-                System.out.println("after the thread");
+    /**
+     * Tells the sender to start sending from the first byte that is not in the partial file yet, and connects
+     * to the transfer server to receive it.
+     *
+     * @param response The response to the sender's request.
+     * @param attempt  The number of times this transfer was resumed before.
+     */
+    private void requestFileTransfer(FileTransferResponse response, int attempt) {
+        UUID transferId = response.getTransferId();
+        File partFile = new File(transferId + ".part");
 
-            } catch (IOException e ) {
-                throw new RuntimeException(e);
-            }
+        // Only verified chunks are ever written to the partial file, so its length is what we can keep
+        response.setStatus("OK");
+        response.setOffset(partFile.length());
 
-        } else {
-            System.out.println("there is no pending file.txt requests");
+        try {
+            String jsonMessage = FILE_TRANSFER_RESPONSE + " " + Codec.writeAsString(response);
+            os.println(jsonMessage);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
         }
 
+        // One connection per stream, each announcing its index so the server pairs it with the matching sender
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int stream = 0; stream < response.getStreams(); stream++) {
+                Socket fileTransferSocket = new Socket(SERVER_ADDRESS, FILE_TRANSFER_PORT);
+                sockets.add(fileTransferSocket);
+                fileTransferSocket.getOutputStream().write('R');
+                fileTransferSocket.getOutputStream().write(transferId.toString().getBytes());
+                fileTransferSocket.getOutputStream().write(stream);
+                fileTransferSocket.getOutputStream().flush();
+            }
+
+            new Thread(() -> handleFileReceive(sockets, response, partFile, attempt)).start();
+
+        } catch (IOException e) {
+            System.err.println("Could not connect to the file transfer server: " + e.getMessage());
+            closeSockets(sockets);
+        }
     }
 
 
@@ -357,7 +405,7 @@ public class ClientManager implements Runnable {
         if (fileTransferResponse != null) {
             fileTransferResponse.setStatus("NO");
             try {
-                String jsonMessage = FILE_TRANSFER_RESPONSE + " " + mapper.writeValueAsString(fileTransferResponse);
+                String jsonMessage = FILE_TRANSFER_RESPONSE + " " + Codec.writeAsString(fileTransferResponse);
                 os.println(jsonMessage);
             } catch (JsonProcessingException e) {
                 throw new RuntimeException(e);
@@ -369,62 +417,182 @@ public class ClientManager implements Runnable {
     }
 
 
-    private void handleFileReceive(String uuid) {
-        try {
-            System.out.println("filetransfer socket : " + fileTransferSocket);
-            if (fileTransferSocket != null && !fileTransferSocket.isClosed()) {
-                InputStream inputStream = fileTransferSocket.getInputStream();
-                String fileExtension = new String(inputStream.readNBytes(3));
-                String checksum = new String(inputStream.readNBytes(32));
-                File file = new File(uuid + "." + fileExtension);
-
-                try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
-                    System.out.println("inside the try block");
-                    byte[] fileBuffer = new byte[8192];
-                    System.out.println("the file");
-                    int bytesRead;
-                    while ((bytesRead = inputStream.read(fileBuffer)) != -1) {
-
-                        fileOutputStream.write(fileBuffer, 0, bytesRead);
-                    }
+    /**
+     * Receives every range of a file into the partial file, each stream on its own thread, and renames it once
+     * all ranges are verified. After a failure the partial file is cut back to the end of the verified prefix,
+     * since its length is the offset the transfer resumes from.
+     */
+    private void handleFileReceive(List<Socket> sockets, FileTransferResponse response, File partFile, int attempt) {
+        int streams = sockets.size();
+        ChunkedTransfer.Header[] headers = new ChunkedTransfer.Header[streams];
+        long[] verified = new long[streams];
+        IOException[] failures = new IOException[streams];
+        boolean preallocated = false;
+
+        try (RandomAccessFile part = new RandomAccessFile(partFile, "rw")) {
+            try {
+                DataInputStream[] inputStreams = new DataInputStream[streams];
+                for (int i = 0; i < streams; i++) {
+                    inputStreams[i] = new DataInputStream(
+                            new BufferedInputStream(sockets.get(i).getInputStream(), FILE_TRANSFER_CHUNK_BYTES));
+                    headers[i] = ChunkedTransfer.Header.readFrom(inputStreams[i]);
+                    verified[i] = headers[i].rangeStart();
+                }
+                checkRanges(headers, response.getOffset());
+
+                // Anything past the resume point is dropped, in case the sender restarted from an earlier offset,
+                // then the file is grown to its final size up front so every stream can write at its own offset
+                part.setLength(headers[0].rangeStart());
+                part.setLength(headers[0].totalSize());
+                preallocated = true;
+                FileChannel channel = part.getChannel();
+
+                Thread[] threads = new Thread[streams];
+                for (int i = 0; i < streams; i++) {
+                    int index = i;
+                    threads[i] = new Thread(() -> {
+                        try {
+                            receiveRange(inputStreams[index], channel, headers[index], verified, index);
+                        } catch (IOException e) {
+                            failures[index] = e;
+                        }
+                    });
+                    threads[i].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
 
-                    System.out.println("file transfer is done !!!");
-                    // Compare checksum received and checksum of the file.txt
-                    boolean notCorrupted = compareChecksum(checksum, file);
-                    if (notCorrupted) {
-                        System.out.println("File received and saved: " + file.getName());
-                    } else {
-                        System.out.println("File was corrupted during transfer!");
-                        file.delete();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while receiving the file");
+            } finally {
+                closeSockets(sockets);
+
+                // Ranges after a gap cannot be kept, the partial file may only cover verified bytes
+                if (preallocated) {
+                    long prefix = headers[0].rangeStart();
+                    for (int i = 0; i < streams; i++) {
+                        prefix = verified[i];
+                        if (verified[i] != headers[i].rangeEnd()) {
+                            break;
+                        }
+                    }
+                    if (prefix != headers[0].totalSize()) {
+                        part.setLength(prefix);
                     }
                 }
-            } else {
-                System.out.println("File transfer socket is not properly set up.");
             }
+
         } catch (IOException e) {
-            System.err.println("Exception during file transfer handling: " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            try {
-                if (fileTransferSocket != null && !fileTransferSocket.isClosed()) {
-                    fileTransferSocket.close();
-                }
-            } catch (IOException e) {
-                System.err.println("Error closing file transfer socket: " + e.getMessage());
-                e.printStackTrace();
+            retryFileReceive(response, attempt, e);
+            return;
+        }
+
+        for (IOException failure : failures) {
+            if (failure != null) {
+                retryFileReceive(response, attempt, failure);
+                return;
             }
         }
+
+        String extension = headers[0].extension();
+        File file = new File(response.getTransferId() + (extension.isEmpty() ? "" : "." + extension));
+        if (partFile.renameTo(file)) {
+            System.out.println("File received and saved: " + file.getName());
+        } else {
+            System.out.println("File received but could not be renamed, it is saved as: " + partFile.getName());
+        }
+    }
+
+
+    /**
+     * Checks that the streams together cover everything from the resume offset to the end of one file.
+     */
+    private static void checkRanges(ChunkedTransfer.Header[] headers, long offset) throws IOException {
+        if (headers[0].rangeStart() > offset) {
+            throw new IOException("The sender skipped to " + headers[0].rangeStart() + " but we only have " +
+                    offset + " bytes");
+        }
+
+        for (int i = 1; i < headers.length; i++) {
+            if (headers[i].totalSize() != headers[0].totalSize() || headers[i].rangeStart() != headers[i - 1].rangeEnd()) {
+                throw new IOException("The ranges of the transfer streams do not line up");
+            }
+        }
+
+        if (headers[headers.length - 1].rangeEnd() != headers[0].totalSize()) {
+            throw new IOException("The transfer streams end at " + headers[headers.length - 1].rangeEnd() + " of " +
+                    headers[0].totalSize() + " bytes");
+        }
     }
 
 
-    private boolean compareChecksum(String receivedChecksum, File file) {
-        String receivedFileChecksum;
+    /**
+     * Writes one range to its place in the partial file, recording how far it got in {@code verified[stream]}.
+     */
+    private static void receiveRange(DataInputStream inputStream, FileChannel channel, ChunkedTransfer.Header header,
+                                     long[] verified, int stream) throws IOException {
+        // Hash the chunks as they are written, instead of reading the finished file again
+        TransferHash hash = header.newHash();
+        byte[] buffer = new byte[header.chunkSize()];
+        long position = header.rangeStart();
+        try (TransferCodec codec = header.newCodec()) {
+            int length;
+            while ((length = ChunkedTransfer.readChunk(inputStream, position, buffer, codec)) > 0) {
+                hash.update(buffer, 0, length);
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, length);
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk, position + chunk.position());
+                }
+                position += length;
+                verified[stream] = position;
+            }
+        }
+
+        if (position != header.rangeEnd()) {
+            throw new IOException("The transfer ended after " + position + " of " + header.rangeEnd() + " bytes");
+        }
+
         try {
-            receivedFileChecksum = FileTransferHandler.calculateMD5Checksum(file);
+            ChunkedTransfer.verifyTrailer(inputStream, hash.digest());
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            // Nothing in this range can be trusted, so the retry has to fetch all of it again
+            verified[stream] = header.rangeStart();
+            throw e;
         }
-        return receivedChecksum.equals(receivedFileChecksum);
+    }
+
+
+    private static void closeSockets(List<Socket> sockets) {
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already gone
+            }
+        }
+    }
+
+
+    private void retryFileReceive(FileTransferResponse response, int attempt, IOException cause) {
+        File partFile = new File(response.getTransferId() + ".part");
+
+        if (attempt >= FILE_TRANSFER_MAX_RETRIES) {
+            System.out.println("File transfer failed: " + cause.getMessage() + ". The " + partFile.length() +
+                    " bytes received so far are kept in " + partFile.getName());
+            return;
+        }
+
+        System.out.println("File transfer interrupted (" + cause.getMessage() + "), resuming from byte " +
+                partFile.length() + "...");
+        try {
+            Thread.sleep(FILE_TRANSFER_RETRY_DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        requestFileTransfer(response, attempt + 1);
     }
 
     /**
@@ -439,7 +607,7 @@ public class ClientManager implements Runnable {
         encryptedMessageRequest.setReceiver(receiver);
         encryptedMessageRequest.setSender(this.username);
 
-        String jsonMessage = SECURE_MESSAGE_REQ + " " + mapper.writeValueAsString(encryptedMessageRequest);
+        String jsonMessage = SECURE_MESSAGE_REQ + " " + Codec.writeAsString(encryptedMessageRequest);
         os.println(jsonMessage);
     }
 
@@ -449,10 +617,15 @@ public class ClientManager implements Runnable {
      * RECEIVE FROM SERVER
      **/
     public Boolean login() throws IOException {
-        String loginResponse = is.readLine();
+        AtomicReference<String> loginResponse = new AtomicReference<>();
+        decoder.readFrame(is, (header, payload) -> {
+            if (header.equals(LOGIN_RESP)) {
+                loginResponse.set(payload.asString());
+            }
+        });
 
-        if (loginResponse.startsWith(LOGIN_RESP)) {
-            JSONObject loginObject = new JSONObject(loginResponse.substring(LOGIN_RESP.length() + 1));
+        if (loginResponse.get() != null) {
+            JSONObject loginObject = new JSONObject(loginResponse.get());
             String status = loginObject.getString("status");
 
             if (status.equals("OK")) {
@@ -476,7 +649,7 @@ public class ClientManager implements Runnable {
      * @param header     The type of server message.
      * @param serverData The data received from the server.
      */
-    public void handleMessagesThatNeedsResponseAfterReceiving(String header, String serverData) {
+    public void handleMessagesThatNeedsResponseAfterReceiving(String header, Payload serverData) {
 
         switch (header) {
 
@@ -489,11 +662,11 @@ public class ClientManager implements Runnable {
 
     }
 
-    public void handleSendingPublicKey(String serverData) {
+    public void handleSendingPublicKey(Payload serverData) {
 
 
         try {
-            EncryptedMessageRequest message = mapper.readValue(serverData, EncryptedMessageRequest.class);
+            EncryptedMessageRequest message = serverData.read(EncryptedMessageRequest.class);
             String sender = message.getSender();
 
 
@@ -503,22 +676,22 @@ public class ClientManager implements Runnable {
             responsePublicKey.setReceiver(this.username);
 
 
-            String jsonMessage = SECURE_MESSAGE_RES + " " + mapper.writeValueAsString(responsePublicKey);
+            String jsonMessage = SECURE_MESSAGE_RES + " " + Codec.writeAsString(responsePublicKey);
 
             os.println(jsonMessage);
 
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
     }
 
 
-    public void handleSendingSessionKey(String serverData) {
+    public void handleSendingSessionKey(Payload serverData) {
         try {
 
-            EncryptedMessageResponse message = mapper.readValue(serverData, EncryptedMessageResponse.class);
+            EncryptedMessageResponse message = serverData.read(EncryptedMessageResponse.class);
             String sender = message.getSender();
             String receiver = message.getReceiver();
             String publicKey = message.getPublicKey();
@@ -533,20 +706,20 @@ public class ClientManager implements Runnable {
             encryptedMessageObject.setSessionKey(encryptedSessionKey);
             encryptedMessageObject.setEncryptedMessage(messageAfterEncryption);
 
-            String jsonMessage = SECURE_MESSAGE + " " + mapper.writeValueAsString(encryptedMessageObject);
+            String jsonMessage = SECURE_MESSAGE + " " + Codec.writeAsString(encryptedMessageObject);
 
             os.println(jsonMessage);
 
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
 
-    public void handleEncryptedMessage(String serverData) {
+    public void handleEncryptedMessage(Payload serverData) {
         try {
-            EncryptedMessage message = mapper.readValue(serverData, EncryptedMessage.class);
+            EncryptedMessage message = serverData.read(EncryptedMessage.class);
             String sender = message.getSender();
             String encryptedSessionKey = message.getSessionKey();
             String messageEncrypted = message.getEncryptedMessage();
@@ -558,7 +731,7 @@ public class ClientManager implements Runnable {
             System.out.println(sender + " has sent a secure message : " + decryptedMessage);
 
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
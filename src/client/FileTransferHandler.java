@@ -1,122 +1,226 @@
 package client;
 
-import java.io.*;
-import java.math.BigInteger;
-import java.net.Socket;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Optional;
-import java.util.UUID;
+import shared.*;
 
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.charset.StandardCharsets.*;
 import static shared.Constant.*;
 
 public class FileTransferHandler {
+    private static final int MAX_SKIPPED_CHUNKS = 64;
 
+    // Files offered to other users, by transfer id, so a resumed transfer can be served again
+    private static final Map<UUID, File> outgoingFiles = new ConcurrentHashMap<>();
 
-    private Socket socket;
-
-
-    private File file = new File("resources/file.txt");
+    // SHA-256 of files sent whole before, taken from the digest of that send, so the file is never read just
+    // to be hashed; the server skips the upload of content it has cached
+    private static final Map<FileVersion, String> contentHashes = new ConcurrentHashMap<>();
 
 
     public FileTransferHandler() {}
 
+
     /**
-     * Initiates the file.txt transfer process.
+     * Remembers which file belongs to an outgoing transfer request.
      *
-     * @param uuid The recipient of the file.txt.
+     * @param transferId The transfer id sent in the request.
+     * @param file       The file to send once the receiver accepts.
      */
+    public static void registerOutgoingFile(UUID transferId, File file) {
+        outgoingFiles.put(transferId, file);
+    }
 
-    public void FileTransferstart(UUID uuid) {
-        new Thread(() -> {
-            try {
-                // Connect to the file.txt transfer server
-                socket = new Socket( "127.0.0.1", 1338);
 
-                // Send the file.txt content to the server
-               sendFileContent(uuid.toString());
+    /**
+     * @param file The file to offer.
+     * @return The hex encoded SHA-256 of the file, or null if it was not sent whole since it last changed.
+     */
+    public static String knownContentHash(File file) {
+        return contentHashes.get(FileVersion.of(file));
+    }
 
-                // Close the file.txt transfer socket
-                socket.close();
-            } catch (IOException e) {
-                System.err.println("Exception during file.txt transfer initiation: " + e.getMessage());
-                e.printStackTrace();
-            }
-        }).start();
 
+    /**
+     * @param size The size of the file to offer.
+     * @return The number of parallel streams to offer the receiver; small files are not worth splitting.
+     */
+    public static int streamsFor(long size) {
+        return size >= FILE_TRANSFER_PARALLEL_MIN_BYTES ? Math.max(1, FILE_TRANSFER_STREAMS) : 1;
     }
 
 
-    private void sendFileContent(String uuid) {
-        String filePath = file.getPath();
-        try (FileInputStream fileInputStream = new FileInputStream(file);
-             OutputStream outputStream = socket.getOutputStream()) {
+    /**
+     * Initiates the file transfer process, splitting what the receiver is missing into one range per stream.
+     *
+     * @param uuid    The transfer id accepted by the receiver.
+     * @param offset  The number of bytes the receiver already has.
+     * @param streams The number of streams the receiver connected, at most what was offered.
+     * @param codec   The codec the receiver picked, or null if it did not pick one.
+     */
 
-            // Include sender/receiver indicator, UUID, and checksum in the file.txt content
-            outputStream.write('S');
-            outputStream.write(uuid.getBytes());
-            String fileExtension = Optional.of(filePath)
-                    .filter(f -> f.contains("."))
-                    .map(f -> f.substring(filePath.lastIndexOf(".") + 1)).orElse("");
-            if (fileExtension.length() != 3) {
-                fileExtension = "txt";
-            }
-            outputStream.write(fileExtension.getBytes());
-            System.out.println("UUID:" + uuid + " " + uuid.getBytes());
-            System.out.println("File ext:" + fileExtension);
-            String checksum = calculateMD5Checksum(file);
-            System.out.println("Checksum: " + checksum);
-            System.out.println("Checksum length: " + checksum.length());
-         //   outputStream.write(checksum.length());
-            outputStream.write(checksum.getBytes());
-
-            // Send file content
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
+    public void FileTransferstart(UUID uuid, long offset, int streams, String codec) {
+        start(uuid, 'S', offset, streams, codec);
+    }
 
-            long bytesTransferred = fileInputStream.transferTo(socket.getOutputStream());
-            outputStream.close();
-            fileInputStream.close();
-            System.out.println("File Transfer Complete. Bytes Transferred: " + bytesTransferred);
 
-        } catch (IOException e) {
-            System.err.println("Exception during file.txt content transfer: " + e.getMessage());
-            e.printStackTrace();
-        }
+    /**
+     * Uploads the whole file to the server's spool, which keeps it until the receiver downloads it.
+     *
+     * @param uuid  The transfer id the server accepted for spooling.
+     * @param codec The codec the server picked, or null if it did not pick one.
+     */
+    public void uploadToSpool(UUID uuid, String codec) {
+        start(uuid, 'U', 0, 1, codec);
     }
 
-    public static String calculateMD5Checksum(File file) throws IOException {
-        //  use a way to generate a checksum using the FileStream
-        try (FileInputStream fis = new FileInputStream(file); FileChannel channel = fis.getChannel()) {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            ByteBuffer buffer = ByteBuffer.allocate(8192);
 
-            while (channel.read(buffer) > 0) {
-                buffer.flip();
-                md.update(buffer);
-                buffer.clear();
-            }
+    private void start(UUID uuid, char role, long offset, int streams, String codec) {
+        File file = outgoingFiles.get(uuid);
 
-            byte[] hash = md.digest();
+        if (file == null) {
+            System.out.println("There is no file for transfer " + uuid);
+            return;
+        }
 
-            return String.format("%032x", new BigInteger(1, hash));
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+        // Resume where the receiver left off, unless its offset does not fit this file
+        long size = file.length();
+        long start = offset >= 0 && offset <= size ? offset : 0;
+        streams = Math.max(1, Math.min(streams, streamsFor(size)));
+        long[] bounds = ChunkedTransfer.split(start, size, streams, FILE_TRANSFER_CHUNK_BYTES);
+        String negotiated = TransferCodec.negotiate(codec == null ? null : List.of(codec));
+
+        for (int i = 0; i < bounds.length - 1; i++) {
+            int index = i;
+            new Thread(() -> {
+                // Connect to the file transfer server and send the file content
+                try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(SERVER_ADDRESS, FILE_TRANSFER_PORT))) {
+                    sendFileContent(channel, role, uuid, index, file, size, bounds[index], bounds[index + 1], negotiated);
+                } catch (IOException e) {
+                    System.err.println("Exception during file transfer initiation: " + e.getMessage());
+                }
+            }).start();
         }
     }
 
 
+    /**
+     * Sends the file straight from a read-only mapping, so its bytes are never copied into the Java heap: the
+     * CRC32C and the digest are computed over the mapped pages and the kernel copies them to the socket.
+     * A plain {@code transferTo} would skip even that, but then nothing would ever see the bytes to checksum.
+     * When a codec was negotiated, chunks that compress well are copied out and sent compressed instead; after
+     * a chunk that does not, the next ones are sent raw for a while before compression is tried again.
+     */
+    private void sendFileContent(SocketChannel channel, char role, UUID uuid, int stream, File file, long size,
+                                 long start, long end, String codecName) {
+        FileVersion version = FileVersion.of(file);
+
+        try (FileChannel input = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             TransferCodec codec = TransferCodec.of(codecName)) {
+            if (input.size() != size) {
+                throw new IOException("The file changed size while it was being sent");
+            }
+
+            ByteArrayOutputStream control = new ByteArrayOutputStream();
+            DataOutputStream controlStream = new DataOutputStream(control);
+
+            // Sender or upload indicator, transfer id and stream index for the rendezvous on the server
+            controlStream.write(role);
+            controlStream.write(uuid.toString().getBytes(US_ASCII));
+            controlStream.write(stream);
+
+            new ChunkedTransfer.Header(ChunkedTransfer.extension(file.getName()), size, start, end, FILE_TRANSFER_CHUNK_BYTES,
+                    FILE_TRANSFER_HASH, codec.name()).writeTo(controlStream);
+            writeFully(channel, ByteBuffer.wrap(control.toByteArray()));
+
+            // Send file content, hashing each chunk on the way out so the file is read only once
+            TransferHash hash = TransferHash.of(FILE_TRANSFER_HASH);
+            ByteBuffer chunkHeader = ByteBuffer.allocate(ChunkedTransfer.CHUNK_HEADER_BYTES);
+            boolean compress = codec.id() != 0;
+            byte[] raw = compress ? new byte[FILE_TRANSFER_CHUNK_BYTES] : null;
+            byte[] encoded = compress ? new byte[FILE_TRANSFER_CHUNK_BYTES] : null;
+            int skipChunks = 0;
+            int backoff = 1;
+            long sentBytes = 0;
+            long position = start;
+            while (position < end) {
+                MappedByteBuffer window = input.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(FILE_TRANSFER_MAP_BYTES, end - position));
+
+                while (window.hasRemaining()) {
+                    ByteBuffer chunk = window.slice(window.position(),
+                            Math.min(FILE_TRANSFER_CHUNK_BYTES, window.remaining()));
+                    hash.update(chunk);
+                    chunkHeader.clear();
+
+                    int length = chunk.remaining();
+                    int encodedLength = -1;
+                    if (compress && skipChunks-- <= 0) {
+                        chunk.get(0, raw, 0, length);
+                        encodedLength = codec.encode(raw, length, encoded);
+
+                        // Incompressible data tends to come in runs, e.g. an archive embedded in a log
+                        skipChunks = encodedLength < 0 ? backoff : 0;
+                        backoff = encodedLength < 0 ? Math.min(backoff * 2, MAX_SKIPPED_CHUNKS) : 1;
+                    }
+
+                    if (encodedLength < 0) {
+                        ChunkedTransfer.putChunkHeader(chunkHeader, position, chunk, 0, length);
+                        chunkHeader.flip();
+                        writeFully(channel, chunkHeader, chunk);
+                        sentBytes += length;
+                    } else {
+                        ChunkedTransfer.putChunkHeader(chunkHeader, position, chunk, codec.id(), encodedLength);
+                        chunkHeader.flip();
+                        writeFully(channel, chunkHeader, ByteBuffer.wrap(encoded, 0, encodedLength));
+                        sentBytes += encodedLength;
+                    }
+
+                    window.position(window.position() + chunk.capacity());
+                    position += chunk.capacity();
+                }
+            }
+
+            byte[] digest = hash.digest();
+            if (start == 0 && end == size && TransferHash.SHA_256.equals(FILE_TRANSFER_HASH)) {
+                contentHashes.put(version, HexFormat.of().formatHex(digest));
+            }
 
+            control.reset();
+            ChunkedTransfer.writeEnd(controlStream, position);
+            ChunkedTransfer.writeTrailer(controlStream, digest);
+            writeFully(channel, ByteBuffer.wrap(control.toByteArray()));
+            System.out.println("File Transfer Complete. Bytes Transferred: " + (position - start) +
+                    (start > 0 || end < size ? " (bytes " + start + " to " + end + " of " + size + ")" : "") +
+                    (compress ? ", " + sentBytes + " sent with " + codec.name() : ""));
 
+        } catch (IOException e) {
+            System.err.println("Exception during file content transfer: " + e.getMessage());
+        }
+    }
 
 
+    private static void writeFully(SocketChannel channel, ByteBuffer... buffers) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
 
 
+    /**
+     * Identifies one version of a file, assuming its content did not change if its size and time did not.
+     */
+    private record FileVersion(String path, long size, long modified) {
 
+        private static FileVersion of(File file) {
+            return new FileVersion(file.getAbsolutePath(), file.length(), file.lastModified());
+        }
+    }
 }
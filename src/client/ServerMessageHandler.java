@@ -1,7 +1,5 @@
 package client;
 
-import com.fasterxml.jackson.core.*;
-import com.fasterxml.jackson.databind.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import shared.*;
@@ -20,8 +18,7 @@ import static shared.Constant.*;
  * It parses the messages, delegates to appropriate handlers, and performs necessary actions based on the message type.
  */
 public class ServerMessageHandler {
-    private final Map<String, Consumer<String>> messageHandlers = new HashMap<>();
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Consumer<Payload>> messageHandlers = new HashMap<>();
     private static final Logger logger = LoggerFactory.getLogger(ClientManager.class);
 
 
@@ -53,10 +50,11 @@ public class ServerMessageHandler {
         messageHandlers.put(GUESS_NUMBER_RESP, this::handleGuessNumberResponse);
         messageHandlers.put(GAME_RESULTS, this::handleGameResults);
         messageHandlers.put(FILE_TRANSFER_RESPONSE, this::handleHandshakeResponse);
+        messageHandlers.put(FILE_TRANSFER_PROGRESS, this::handleTransferProgress);
 
     }
 
-    private void handlePing(String ping) { }
+    private void handlePing(Payload ping) { }
 
 
     /**
@@ -65,8 +63,8 @@ public class ServerMessageHandler {
      * @param header  The message header.
      * @param payload The message payload.
      */
-    public void handleServerMessage(String header, String payload) {
-        Consumer<String> handler = messageHandlers.get(header);
+    public void handleServerMessage(String header, Payload payload) {
+        Consumer<Payload> handler = messageHandlers.get(header);
 
         if (handler != null) {
             handler.accept(payload);
@@ -78,9 +76,9 @@ public class ServerMessageHandler {
     }
 
 
-    private void handleBroadcastResponse(String serverData) {
+    private void handleBroadcastResponse(Payload serverData) {
         try {
-            BroadcastResponse response = objectMapper.readValue(serverData, BroadcastResponse.class);
+            BroadcastResponse response = serverData.read(BroadcastResponse.class);
 
             if ("OK".equals(response.getStatus())) {
                 System.out.println("Your message has been broadcast");
@@ -90,15 +88,15 @@ public class ServerMessageHandler {
                 System.out.println("Broadcast failed with error code " + code + ": " + getErrorMessage(code));
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while broadcasting");
         }
     }
 
 
-    private void handleBroadcast(String serverData) {
+    private void handleBroadcast(Payload serverData) {
         try {
-            Broadcast broadcast = objectMapper.readValue(serverData, Broadcast.class);
+            Broadcast broadcast = serverData.read(Broadcast.class);
 
             String sender = broadcast.getUsername();
             String message = broadcast.getMessage();
@@ -110,9 +108,9 @@ public class ServerMessageHandler {
     }
 
 
-    private void handleDisconnect(String serverData) {
+    private void handleDisconnect(Payload serverData) {
         try {
-            DCSN dcsnObject = objectMapper.readValue(serverData, DCSN.class);
+            DCSN dcsnObject = serverData.read(DCSN.class);
 
             int reasonCode = dcsnObject.getCode();
             System.out.println("Server disconnected you with reason code " + reasonCode + ": " + getErrorMessage(reasonCode));
@@ -124,39 +122,39 @@ public class ServerMessageHandler {
     }
 
 
-    private void handlePongError(String serverData) { }
+    private void handlePongError(Payload serverData) { }
 
 
-    private void handleJoined(String serverData) {
+    private void handleJoined(Payload serverData) {
         try {
-            JoinedMessage joinedMessage = objectMapper.readValue(serverData, JoinedMessage.class);
+            JoinedMessage joinedMessage = serverData.read(JoinedMessage.class);
             String newUser = joinedMessage.getUsername();
             System.out.println(newUser + " has joined the server");
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while joining the server");
         }
     }
 
 
-    private void handleLeft(String serverData) {
+    private void handleLeft(Payload serverData) {
         try {
-            LeftMessage leftMessage = objectMapper.readValue(serverData, LeftMessage.class);
+            LeftMessage leftMessage = serverData.read(LeftMessage.class);
             String newUser = leftMessage.getUsername();
             System.out.println(newUser + " has left the server");
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while left");
         }
     }
 
 
-    private void handleUnknownCommand(String serverData) {
+    private void handleUnknownCommand(Payload serverData) {
         System.out.println("Server received an invalid message header");
     }
 
 
-    private void handleParseError(String serverData) {
+    private void handleParseError(Payload serverData) {
         System.out.println("Server received an invalid message body");
     }
 
@@ -166,9 +164,9 @@ public class ServerMessageHandler {
     }
 
 
-    private void handleListOfUsersResponse(String serverData) {
+    private void handleListOfUsersResponse(Payload serverData) {
         try {
-            ListOfUsers response = objectMapper.readValue(serverData, ListOfUsers.class);
+            ListOfUsers response = serverData.read(ListOfUsers.class);
 
             if ("OK".equals(response.getStatus())) {
                 StringBuilder userListMessage = new StringBuilder("--------------------\n");
@@ -186,19 +184,19 @@ public class ServerMessageHandler {
                 System.out.println("List users request failed with error code " + code + ": " + getErrorMessage(code));
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while displaying the list of connected users");
         }
     }
 
 
-    private void handlePrivateMessage(String serverData) {
+    private void handlePrivateMessage(Payload serverData) {
         try {
-            PrivateMessageResp privateMessageResponse = objectMapper.readValue(serverData, PrivateMessageResp.class);
+            PrivateMessageResp privateMessageResponse = serverData.read(PrivateMessageResp.class);
 
             if ("OK".equals(privateMessageResponse.getStatus())) {
                 // Extract the private message content
-                PrivateMessage privateMessage = objectMapper.readValue(privateMessageResponse.getMessage(), PrivateMessage.class);
+                PrivateMessage privateMessage = Codec.read(privateMessageResponse.getMessage(), PrivateMessage.class);
                 System.out.println("You received a private message from " + privateMessage.getSender() + ": " + "\"" + privateMessage.getMessage() + "\"");
 
             } else if ("ERROR".equals(privateMessageResponse.getStatus())) {
@@ -206,15 +204,15 @@ public class ServerMessageHandler {
                 System.out.println("Private message failed with error code " + code + ": " + privateMessageResponse.getMessage());
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while displaying the private message");
         }
     }
 
 
-    private void handlePrivateMessageResponse(String serverData) {
+    private void handlePrivateMessageResponse(Payload serverData) {
         try {
-            PrivateMessageResp response = objectMapper.readValue(serverData, PrivateMessageResp.class);
+            PrivateMessageResp response = serverData.read(PrivateMessageResp.class);
 
             if ("OK".equals(response.getStatus())) {
                 System.out.println("Private message sent!");
@@ -224,33 +222,33 @@ public class ServerMessageHandler {
                 System.out.println("Private message failed with error code " + code + ": " + getErrorMessage(code));
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while sending the private message");
         }
     }
 
 
-    private void handleStartGameResponse(String serverData) {
+    private void handleStartGameResponse(Payload serverData) {
         try {
-            StartGuessingGame startGameResponse = objectMapper.readValue(serverData, StartGuessingGame.class);
+            StartGuessingGame startGameResponse = serverData.read(StartGuessingGame.class);
 
             if ("OK".equals(startGameResponse.getStatus())) {
-                System.out.println("Game initiation successful. Waiting for players to join...");
+                System.out.println("Game " + startGameResponse.getGameId() + " initiated successfully. Waiting for players to join...");
 
             } else if ("ERROR".equals(startGameResponse.getStatus())) {
                 int errorCode = startGameResponse.getCode();
                 System.out.println("An error occurred while initiating the guessing game { " + errorCode + " }: " + getErrorMessage(errorCode));
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while starting the game");
         }
     }
 
 
-    private void handleGameNotification(String serverData) {
+    private void handleGameNotification(Payload serverData) {
         try {
-            GameNotification gameNotification = objectMapper.readValue(serverData, GameNotification.class);
+            GameNotification gameNotification = serverData.read(GameNotification.class);
 
             String status = gameNotification.getStatus();
             String message = gameNotification.getMessage();
@@ -263,34 +261,34 @@ public class ServerMessageHandler {
                 System.out.println("An error occurred while sending notification { " + code + " }: " + getErrorMessage(code));
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("Error processing game notification: " + e.getMessage(), e);
         }
     }
 
 
-    private void handleJoinGameResponse(String serverData) {
+    private void handleJoinGameResponse(Payload serverData) {
         try {
-            JoinGame joinGameResponse = objectMapper.readValue(serverData, JoinGame.class);
+            JoinGame joinGameResponse = serverData.read(JoinGame.class);
 
             if ("OK".equals(joinGameResponse.getStatus())) {
-                System.out.println("You have joined the game.");
+                System.out.println(joinGameResponse.getGameId() > 0 ? "You have joined game " + joinGameResponse.getGameId() + "." : "You have joined the game.");
 
             } else if ("ERROR".equals(joinGameResponse.getStatus())) {
                 int errorCode = joinGameResponse.getCode();
                 System.out.println("Joining the game failed with error code " + errorCode + ": " + getErrorMessage(errorCode));
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("Error processing join guessing game.");
         }
     }
 
 
     // Modification based on Gerralt feedback
-    private void handleGuessNumberResponse(String guessNumberResponse) {
+    private void handleGuessNumberResponse(Payload guessNumberResponse) {
         try {
-            GuessingGame response = objectMapper.readValue(guessNumberResponse, GuessingGame.class);
+            GuessingGame response = guessNumberResponse.read(GuessingGame.class);
 
             if ("OK".equals(response.getStatus())) {
                 System.out.println("Your guess is valid");
@@ -312,15 +310,15 @@ public class ServerMessageHandler {
                 System.out.println("Guess failed with error code " + code + ": " + getErrorMessage(code));
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while handling guesses.");
         }
     }
 
 
-    private void handleGameResults(String results) {
+    private void handleGameResults(Payload results) {
         try {
-            GuessingGame gameResults = objectMapper.readValue(results, GuessingGame.class);
+            GuessingGame gameResults = results.read(GuessingGame.class);
 
             if ("OK".equals(gameResults.getStatus())) {
                 Map<String, String> resultsMap = gameResults.getResults();
@@ -355,7 +353,7 @@ public class ServerMessageHandler {
                 System.out.println(message + "-----------------------------------------\n");
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while displaying the results.");
         }
     }
@@ -367,9 +365,9 @@ public class ServerMessageHandler {
      *
      * @param serverData The FILE_TRANSFER_RESPONSE message.
      */
-    private void handleHandshakeResponse(String serverData){
+    private void handleHandshakeResponse(Payload serverData){
         try {
-            FileTransferResponse response = objectMapper.readValue(serverData, FileTransferResponse.class);
+            FileTransferResponse response = serverData.read(FileTransferResponse.class);
 
 
             if ("OK".equals(response.getStatus())) {
@@ -378,7 +376,15 @@ public class ServerMessageHandler {
                 UUID transferUUID = response.getTransferId();
 
 
-                fileTransferHandler.FileTransferstart(transferUUID);
+                fileTransferHandler.FileTransferstart(transferUUID, response.getOffset(), response.getStreams(),
+                        response.getCodec());
+
+            } else if ("SPOOL".equals(response.getStatus())) {
+                System.out.println("Uploading the file to the server, the receivers can download it from there");
+                new FileTransferHandler().uploadToSpool(response.getTransferId(), response.getCodec());
+
+            } else if ("CACHED".equals(response.getStatus())) {
+                System.out.println("The server already has this file, the receivers download it from there");
 
             } else if ("NO".equals(response.getStatus())) {
                 System.out.println("The receiver declined the file.txt");
@@ -388,12 +394,44 @@ public class ServerMessageHandler {
                 System.out.println("Private message failed with error code " + code + ": " + getErrorMessage(code));
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             logger.error("An error occurred while processing");
         }
     }
 
 
+    /**
+     * Handles a FILE_TRANSFER_PROGRESS message from the server.
+     *
+     * @param serverData The FILE_TRANSFER_PROGRESS message.
+     */
+    private void handleTransferProgress(Payload serverData) {
+        try {
+            FileTransferProgress progress = serverData.read(FileTransferProgress.class);
+
+            String transfer = "Transfer " + (progress.getSender() != null ? progress.getSender() : "server") +
+                    " -> " + (progress.getReceiver() != null ? progress.getReceiver() : "server");
+            String bytes = String.format("%.1f", progress.getBytes() / 1048576.0) +
+                    (progress.getTotalBytes() > 0 ? " of " + String.format("%.1f", progress.getTotalBytes() / 1048576.0) : "") + " MiB";
+
+            switch (progress.getStatus()) {
+                case FileTransferProgress.ACTIVE -> {
+                    String percent = progress.getTotalBytes() > 0 ? progress.getBytes() * 100 / progress.getTotalBytes() + "% " : "";
+                    String eta = progress.getEtaSeconds() >= 0 ? ", " + progress.getEtaSeconds() + "s left" : "";
+                    System.out.println(transfer + ": " + percent + "(" + bytes + ") at " +
+                            String.format("%.1f", progress.getBytesPerSecond() / 1048576.0) + " MiB/s" + eta);
+                }
+                case FileTransferProgress.COMPLETE -> System.out.println(transfer + " completed (" + bytes + ")");
+                case FileTransferProgress.STALLED -> System.out.println(transfer + " stopped moving and was aborted by the server (" + bytes + ")");
+                default -> System.out.println(transfer + " was interrupted (" + bytes + ")");
+            }
+
+        } catch (IOException e) {
+            logger.error("An error occurred while processing the transfer progress");
+        }
+    }
+
+
     protected String getErrorMessage(int code) {
         return getMessage(code);
     }
@@ -413,6 +451,7 @@ public class ServerMessageHandler {
             case USER_NOT_LOGGED_IN -> "User is not logged in!";
             case PONG_TIMEOUT -> "Pong timeout!";
             case UNTERMINATED_MESSAGE -> "Unterminated message!";
+            case SLOW_CONSUMER -> "Too slow to keep up with the server!";
             case PONG_WITHOUT_PING -> "Pong without ping";
             case YOUR_GUESS_IS_TOO_LOW -> "Too Low!";
             case YOUR_GUESS_IS_TOO_HIGH -> "Too High!";
@@ -425,6 +464,8 @@ public class ServerMessageHandler {
             case SEND_TO_SELF_ERROR -> "Sending a private message to yourself is not allowed!";
             case EMPTY_MESSAGE_BODY_ERROR -> "Cannot send an empty private message!";
             case RECIPIENT_NOT_FOUND -> "Recipient not found!";
+            case SPOOL_QUOTA_EXCEEDED -> "The server has no room to store the file!";
+            case TOO_MANY_RECEIVERS -> "A file can be sent to at most " + FILE_TRANSFER_MAX_RECEIVERS + " users at once!";
             case NO_RUNNING_GAME -> "There is actually no running game!";
             case USER_ALREADY_JOINED -> "You are already in the game!";
             case GAME_HAS_ALREADY_STARTED_CANNOT_JOIN -> "The game has already started, you cannot join anymore!";
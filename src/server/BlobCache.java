@@ -0,0 +1,138 @@
+package server;
+
+import shared.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Content-addressed cache of stored transfer streams, keyed by the SHA-256 of the file content, so a file
+ * that is sent again does not have to be uploaded again. Blobs are evicted least recently used first once
+ * the cache grows past its size limit, except for blobs that are pinned because a spooled transfer still
+ * needs them.
+ * <p>
+ * A content hash is easy to come by without having the file, so a blob is only handed to the users who
+ * uploaded that content themselves, and only for a file of the size it was uploaded with. Anyone else has to
+ * upload the file, which then makes them an owner of the blob as well.
+ */
+class BlobCache {
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Blob> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+
+    BlobCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+
+    /**
+     * Pins the blob with the given content hash, if it is cached and the user uploaded it.
+     *
+     * @param contentHash The hex encoded SHA-256 of the file content.
+     * @param user        The user who announced the content.
+     * @param size        The size of the file the user announced.
+     * @return The pinned blob, or null if it is not cached, not uploaded by the user, or of another size.
+     */
+    synchronized Blob acquire(String contentHash, String user, long size) {
+        Blob blob = blobs.get(contentHash);
+        if (blob == null || !blob.owners.contains(user) || blob.stored.header().totalSize() != size) {
+            return null;
+        }
+        blob.pins++;
+        return blob;
+    }
+
+
+    /**
+     * Moves a verified stream into the cache. If the content is cached already, the new copy is deleted.
+     *
+     * @param contentHash The hex encoded SHA-256 of the file content, computed by the server.
+     * @param file        The stored stream.
+     * @param stored      What {@link ChunkedTransfer#skim} found in the stored stream.
+     * @param size        The size of the stored stream.
+     * @param owner       The user who uploaded the stream.
+     * @return The pinned blob, or null if the stream does not fit in the cache and was left where it is.
+     */
+    synchronized Blob store(String contentHash, Path file, ChunkedTransfer.StoredStream stored, long size,
+                            String owner) throws IOException {
+        Blob blob = blobs.get(contentHash);
+        if (blob != null) {
+            Files.deleteIfExists(file);
+            blob.owners.add(owner);
+            blob.pins++;
+            return blob;
+        }
+
+        if (size > maxBytes) {
+            return null;
+        }
+
+        Path path = directory.resolve(contentHash + ".blob");
+        Files.move(file, path, StandardCopyOption.REPLACE_EXISTING);
+        blob = new Blob(path, stored, size);
+        blob.owners.add(owner);
+        blob.pins = 1;
+        blobs.put(contentHash, blob);
+        totalBytes += size;
+        evict();
+        return blob;
+    }
+
+
+    /**
+     * Unpins a blob, which may then be evicted.
+     */
+    synchronized void release(Blob blob) {
+        blob.pins--;
+        evict();
+    }
+
+
+    /**
+     * @return The number of bytes held by the cache.
+     */
+    synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+
+    private void evict() {
+        Iterator<Blob> leastRecentlyUsed = blobs.values().iterator();
+        while (totalBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+            Blob blob = leastRecentlyUsed.next();
+            if (blob.pins > 0) {
+                continue;
+            }
+
+            leastRecentlyUsed.remove();
+            totalBytes -= blob.size;
+            try {
+                Files.deleteIfExists(blob.path);
+            } catch (IOException e) {
+                System.err.println("Could not delete cached blob " + blob.path + ": " + e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * One cached stream. Its public fields never change, so they can be read without holding the cache lock.
+     */
+    static final class Blob {
+        final Path path;
+        final ChunkedTransfer.StoredStream stored;
+        final long size;
+        private final Set<String> owners = new HashSet<>();
+        private int pins;
+
+        private Blob(Path path, ChunkedTransfer.StoredStream stored, long size) {
+            this.path = path;
+            this.stored = stored;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package server;
+
+import java.nio.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A pool of equally sized direct buffers. Direct buffers let channel I/O skip the copy into a temporary native
+ * buffer, but are expensive to allocate and are only freed by the garbage collector, so they are reused instead.
+ * At most {@code maxPooled} idle buffers are kept; when the pool is empty a new buffer is allocated.
+ */
+class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+
+    /**
+     * @return A cleared buffer, which must be handed back with {@link #release(ByteBuffer)}.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        idleCount.decrementAndGet();
+        return buffer;
+    }
+
+
+    void release(ByteBuffer buffer) {
+        buffer.clear();
+
+        if (idleCount.incrementAndGet() <= maxPooled) {
+            idle.add(buffer);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package server;
+
+/**
+ * The transport a {@link ClientHandler} uses to send frames to its client.
+ */
+interface ClientConnection {
+
+    /**
+     * Queues or writes a single encoded frame. The frame may be shared with other connections.
+     *
+     * @param frame The frame to send.
+     */
+    void send(OutboundFrame frame);
+
+    /**
+     * @return The queue of frames waiting to be written to the client.
+     */
+    OutboundQueue getOutboundQueue();
+
+    /**
+     * Closes the underlying socket. Calling it more than once has no effect.
+     */
+    void close();
+}
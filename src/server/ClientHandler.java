@@ -1,13 +1,12 @@
 package server;
 
-import com.fasterxml.jackson.core.*;
-import com.fasterxml.jackson.databind.*;
 import shared.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
-import java.util.stream.*;
 
 import static shared.Constant.*;
 
@@ -15,19 +14,21 @@ import static shared.Constant.*;
 
 
 /**
- * Handles communication with a single client.
+ * Handles communication with a single client. In the blocking server modes it is submitted as a task
+ * to the server's connection executor; in the event loop mode it is driven by its connection.
  */
-public class ClientHandler extends Thread {
+public class ClientHandler implements Runnable {
     private final Socket clientSocket;
-    private Timer pingTimer = new Timer();
-    private Timer pongTimer = new Timer();
+    private ClientConnection connection;
+    private volatile TimerWheel.Timeout pingTimeout;
+    private volatile TimerWheel.Timeout pongTimeout;
+    private long nextPingAt;
     private volatile boolean pongReceived = false;
     private volatile boolean pingSent = false;
-    private String username;
-    private PrintWriter writer;
-    private BufferedReader reader;
+    private volatile String username;
+    private final AtomicReference<GameHandler> game = new AtomicReference<>();
+    private InputStream in;
     static final Logger LOGGER = Logger.getLogger(ClientHandler.class.getName());
-    private final ObjectMapper objectMapper = new ObjectMapper();
 
 
 
@@ -38,12 +39,22 @@ public class ClientHandler extends Thread {
      */
     public ClientHandler(Socket clientSocket) {
         this.clientSocket = clientSocket;
-        GameHandler gameHandler = new GameHandler(this);
     }
 
 
     /**
-     * Entry point for the client handler thread.
+     * Constructs a ClientHandler driven by a non-blocking event loop instead of its own thread.
+     *
+     * @param connection The connection that delivers lines to this handler.
+     */
+    ClientHandler(ClientConnection connection) {
+        this.clientSocket = null;
+        this.connection = connection;
+    }
+
+
+    /**
+     * Entry point for the client handler task.
      */
     @Override
     public void run() {
@@ -71,10 +82,83 @@ public class ClientHandler extends Thread {
      * @throws IOException If an I/O error occurs.
      */
     private void setUpIOStreams() throws IOException {
-        InputStream is = clientSocket.getInputStream();
-        OutputStream os = clientSocket.getOutputStream();
-        writer = new PrintWriter(os, true);
-        reader = new BufferedReader(new InputStreamReader(is));
+        in = clientSocket.getInputStream();
+        connection = new SocketConnection(clientSocket);
+    }
+
+
+    /**
+     * Called by the event loop once the connection is ready.
+     */
+    void onOpen() {
+        sendWelcomeMessage();
+    }
+
+
+    /**
+     * Called for every complete frame received from the client, by the reading thread or the event loop.
+     *
+     * @param messageType The message header.
+     * @param payload     The message body, only valid during this call.
+     */
+    void onFrame(String messageType, Payload payload) {
+        switch (messageType) {
+            case LOGIN -> loginUser(payload);
+            case BROADCAST_REQ -> broadcastMessage(payload.asString());
+            case PING -> handlePing();
+            case PONG -> handlePong();
+            case BYE -> handleBye();
+            case LIST_USERS_REQ -> listConnectedUsers();
+            case PRIVATE_MESSAGE_REQ -> PrivateMessageHandler.handlePrivateMessage(this, payload);
+            case START_GAME_REQ -> ServerSetUp.getGameManager().startGame(this);
+            case JOIN_GAME_REQ -> ServerSetUp.getGameManager().joinGame(payload, this);
+            case GUESS_NUMBER_REQ -> ServerSetUp.getGameManager().checkGuess(payload, this);
+            case FILE_TRANSFER_REQUEST -> handleFileTransfer(payload);
+            case FILE_TRANSFER_RESPONSE -> handleHandshakeResponse(payload);
+            case SECURE_MESSAGE_REQ -> handleEncryptedMessageReq(payload);
+            case SECURE_MESSAGE_RES -> handleEncryptedMessageResponse(payload);
+            case SECURE_MESSAGE -> handleEncryptedMessage(payload);
+            default -> LOGGER.warning("Unknown message type: " + messageType);
+        }
+    }
+
+
+    /**
+     * Called when the client sends more than the maximum frame size without a terminator. The client is told
+     * why with a DSCN and then disconnected, before its unterminated frame can use up more memory.
+     */
+    void onFrameTooLong() {
+        disconnect(UNTERMINATED_MESSAGE, "Message exceeds " + MAX_FRAME_BYTES + " bytes without a terminator");
+    }
+
+
+    /**
+     * Tells the client why with a DSCN and closes the connection once it has been written.
+     *
+     * @param code   The reason code.
+     * @param reason The reason text.
+     */
+    private void disconnect(int code, String reason) {
+        System.out.println("Disconnecting " + username + ": " + reason);
+
+        DCSN disconnect = new DCSN();
+        disconnect.setStatus("ERROR");
+        disconnect.setCode(code);
+        disconnect.setReason(reason);
+        sendMessage(DSCN, disconnect);
+
+        stopHeartBeat();
+        ServerSetUp.removeUser(this);
+        connection.close();
+    }
+
+
+    /**
+     * Called by the event loop after the connection has been closed.
+     */
+    void onClose() {
+        stopHeartBeat();
+        ServerSetUp.removeUser(this);
     }
 
 
@@ -89,19 +173,17 @@ public class ClientHandler extends Thread {
 
 
     void sendMessage(String responseType, Sendable response) {
-        try {
-            String jsonResponse = objectMapper.writeValueAsString(response);
-
-            if (!responseType.isEmpty()) {
-                // Prepend the response type to the JSON message
-                jsonResponse = responseType + " " + jsonResponse;
-            }
+        sendFrame(OutboundFrame.of(responseType, response));
+    }
 
-            writer.println(jsonResponse);
 
-        } catch (IOException e) {
-            LOGGER.severe("Error while processing: " + e.getMessage());
-        }
+    /**
+     * Sends an already encoded frame, which may be shared with other recipients.
+     *
+     * @param frame The frame to send.
+     */
+    void sendFrame(OutboundFrame frame) {
+        connection.send(frame);
     }
 
 
@@ -109,18 +191,19 @@ public class ClientHandler extends Thread {
      * Processes incoming messages from the client.
      */
 
-    private void processMessages() throws JsonProcessingException {
+    private void processMessages() {
         try {
-            String message;
+            FrameDecoder decoder = new FrameDecoder();
 
-            while ((message = reader.readLine()) != null) {
-                String[] parts = message.split(" ", 2);
-                handleMessage(parts);
+            while (decoder.readFrom(in) >= 0) {
+                decoder.decode(this::onFrame);
             }
 
             ServerSetUp.removeUser(this);
             closeConnection();
 
+        } catch (FrameTooLongException e) {
+            onFrameTooLong();
         } catch (IOException e) {
             handleIOException(e);
         }
@@ -133,46 +216,6 @@ public class ClientHandler extends Thread {
     }
 
 
-    /**
-     * Handles a specific message type based on its header.
-     */
-
-    private void handleMessage(String[] parts) throws JsonProcessingException {
-        if (parts.length < 1) {
-            sendParseError();
-            return;
-        }
-
-        String messageType = parts[0];
-        String payload = parts.length > 1 ? parts[1] : "{}";
-
-        // Process the message based on its type
-        switch (messageType) {
-            case LOGIN -> loginUser(payload);
-            case BROADCAST_REQ -> broadcastMessage(payload);
-            case PING -> handlePing();
-            case PONG -> handlePong();
-            case BYE -> handleBye();
-            case LIST_USERS_REQ -> listConnectedUsers();
-            case PRIVATE_MESSAGE_REQ -> PrivateMessageHandler.handlePrivateMessage(this, payload);
-            case START_GAME_REQ -> GameHandler.startGuessingGame(this);
-            case JOIN_GAME_REQ -> GameHandler.joinGuessingGame(this);
-            case GUESS_NUMBER_REQ -> GameHandler.checkClientGuess(payload, this);
-            case FILE_TRANSFER_REQUEST -> handleFileTransfer(payload);
-            case FILE_TRANSFER_RESPONSE -> handleHandshakeResponse(payload);
-            case SECURE_MESSAGE_REQ -> handleEncryptedMessageReq(payload);
-            case SECURE_MESSAGE_RES -> handleEncryptedMessageResponse(payload);
-            case SECURE_MESSAGE -> handleEncryptedMessage(payload);
-            default -> LOGGER.warning("Unknown message type: " + messageType);
-        }
-    }
-
-    private void sendParseError() {
-        ParseError parseError = new ParseError();
-        sendMessage(PARSE_ERROR, parseError);
-    }
-
-
     /**
      * Handles the LOGIN message type, attempting to log in the client.
      *
@@ -180,14 +223,14 @@ public class ClientHandler extends Thread {
      *
      **/
 
-    private void loginUser(String message) {
+    private void loginUser(Payload message) {
         try {
             if (message.isEmpty()) {
                 sendLoginResponse("ERROR", USERNAME_INVALID_FORMAT_OR_LENGTH);
                 return;
             }
 
-            LoginRequest loginRequest = objectMapper.readValue(message, LoginRequest.class);
+            LoginRequest loginRequest = message.read(LoginRequest.class);
             String username = Objects.requireNonNull(loginRequest.getUsername());
 
             if (this.username != null) {
@@ -196,25 +239,24 @@ public class ClientHandler extends Thread {
             } else if (!isValidUsername(username)) {
                 // User must be syntactically valid
                 sendLoginResponse("ERROR", USERNAME_INVALID_FORMAT_OR_LENGTH);
-            } else if (isUsernameInUse(username)) {
+            } else if (!ServerSetUp.claimUsername(username, this)) {
                 // Username already used by another client
                 sendLoginResponse("ERROR", USER_ALREADY_LOGGED_IN);
             } else {
-                // Successful login
-                synchronized (this) { // Ensure thread safety
-                    if (this.username == null) {
-                        this.username = username;
-                        sendLoginResponse("OK", 0);
-                        System.out.println(username + " has joined.");
-                        ServerSetUp.addUsers(this);
-
-                        // Notify other users about the new user joining
-                        notifyOtherUsers(username);
-
-                        // Start the heartbeat thread
-                        Thread heartBeat = new Thread(this::startHeartBeat);
-                        heartBeat.start();
-                    }
+                // Successful login; the username was claimed atomically, so no further locking is needed
+                this.username = username;
+                sendLoginResponse("OK", 0);
+                System.out.println(username + " has joined.");
+
+                // Notify other users about the new user joining
+                notifyOtherUsers(username);
+
+                // Start the heartbeat
+                startHeartBeat();
+
+                // Offer the files that were spooled for this user while they were away
+                for (FileTransferRequest request : ServerSetUp.getFileTransferSpool().pendingFor(username)) {
+                    sendMessage(FILE_TRANSFER_REQUEST, request);
                 }
             }
 
@@ -238,26 +280,19 @@ public class ClientHandler extends Thread {
      * @param newUser The username of the newly joined user.
      */
     private static void notifyOtherUsers(String newUser) {
+        JoinedMessage joinedMessage = new JoinedMessage();
+        joinedMessage.setUsername(newUser);
+        OutboundFrame frame = OutboundFrame.of(JOINED, joinedMessage);
+
         for (ClientHandler client : ServerSetUp.getUsers()) {
             String username = client.getUsername();
             if (username != null && !username.equals(newUser)) {
-                client.sendJoinedMessage(newUser);
+                client.sendFrame(frame);
             }
         }
     }
 
 
-    /**
-     * Sends a JOINED message to the client.
-     *
-     */
-    private void sendJoinedMessage(String newUser) {
-        JoinedMessage joinedMessage = new JoinedMessage();
-        joinedMessage.setUsername(newUser);
-        sendMessage(JOINED, joinedMessage);
-    }
-
-
     /**
      * Initiates a PING message to check the client's connectivity.
      */
@@ -270,27 +305,54 @@ public class ClientHandler extends Thread {
 
 
     /**
-     * Starts the heartbeat mechanism to periodically send PING messages to the client.
+     * Starts the heartbeat: every PING_FREQ_MS the client is sent a PING, which it must answer within
+     * PONG_TIMEOUT_MS. Both deadlines live on the server-wide timer wheel, so no thread is kept per client.
      */
     private void startHeartBeat() {
-        try {
-            Thread.sleep(10000);
-        } catch (InterruptedException e) {
-            LOGGER.severe("Error while heart beating in: " + e.getMessage());
+        nextPingAt = System.nanoTime();
+        schedulePing();
+    }
+
+
+    /**
+     * Schedules the next PING at a fixed rate from the first one, so the time spent sending one does not add up.
+     */
+    private void schedulePing() {
+        nextPingAt += TimeUnit.MILLISECONDS.toNanos(PING_FREQ_MS);
+        pingTimeout = TimerWheel.shared().schedule(this::sendHeartBeat, nextPingAt - System.nanoTime(),
+                TimeUnit.NANOSECONDS);
+    }
+
+
+    private void sendHeartBeat() {
+        if (!isUserLoggedIn(username)) {
+            closeConnection();
+            return;
         }
 
-        pingTimer = new Timer();
-        pingTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (isUserLoggedIn(username)) {
-                    handlePing();
-                } else {
-                    pingTimer.cancel();
-                    closeConnection();
-                }
-            }
-        }, 0, PING_FREQ_MS);
+        handlePing();
+        pongTimeout = TimerWheel.shared().schedule(this::checkPong, PONG_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        schedulePing();
+    }
+
+
+    private void checkPong() {
+        if (!pongReceived) {
+            disconnect(PONG_TIMEOUT, "No PONG received within " + PONG_TIMEOUT_MS + " ms");
+        }
+    }
+
+
+    private void stopHeartBeat() {
+        TimerWheel.Timeout ping = pingTimeout;
+        TimerWheel.Timeout pong = pongTimeout;
+
+        if (ping != null) {
+            ping.cancel();
+        }
+        if (pong != null) {
+            pong.cancel();
+        }
     }
 
 
@@ -301,8 +363,7 @@ public class ClientHandler extends Thread {
      */
     private void sendMessageNoPayload(String header) {
         System.out.println(this.username + " <-- " + header);
-        writer.println(header);
-        writer.flush();
+        sendFrame(OutboundFrame.of(header));
     }
 
 
@@ -315,17 +376,11 @@ public class ClientHandler extends Thread {
 
         System.out.println(this.username + " --> PONG");
         pongReceived = true;
-        pongTimer = new Timer();
-        pongTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (!pongReceived) {
-                    pongTimer.cancel();
-                    closeConnection();
 
-                }
-            }
-        },0, PONG_TIMEOUT_MS);
+        TimerWheel.Timeout pong = pongTimeout;
+        if (pong != null) {
+            pong.cancel();
+        }
     }
 
     private void sendPongError() {
@@ -346,9 +401,16 @@ public class ClientHandler extends Thread {
         response.setStatus("OK");
         response.setCode(0);
 
+        // Serialize the broadcast once and hand the same bytes to every recipient
+        Broadcast broadcast = new Broadcast();
+        broadcast.setUsername(this.username);
+        broadcast.setMessage(message);
+        OutboundFrame frame = OutboundFrame.of(BROADCAST, broadcast).droppable();
+        System.out.println(frame);
+
         for (ClientHandler client : ServerSetUp.getUsers()) {
             if (!client.equals(this)) {
-                client.sendMessageToEveryone(message, this);
+                client.sendFrame(frame);
             }
         }
 
@@ -356,43 +418,20 @@ public class ClientHandler extends Thread {
     }
 
 
-    /**
-     * Sends a broadcast message to all connected clients.
-     *
-     * @param message The message to broadcast.
-     * @param client  The sender of the message.
-     */
-    private void sendMessageToEveryone(String message, ClientHandler client) {
-        Broadcast broadcast = new Broadcast();
-        broadcast.setUsername(client.username);
-        broadcast.setMessage(message);
-
-        try {
-            String jsonResponse = objectMapper.writeValueAsString(broadcast);
-            jsonResponse = BROADCAST + " " + jsonResponse;
-            System.out.println(jsonResponse);
-            writer.println(jsonResponse);
-
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-
     /**
      * Closes the connection for the current client.
      */
     private void closeConnection() {
 
+        stopHeartBeat();
         ServerSetUp.removeUser(this);
 
         try {
             // Close the socket, input stream, and output stream
-            clientSocket.close();
-            reader.close();
-            writer.close();
-
-
+            connection.close();
+            if (in != null) {
+                in.close();
+            }
 
         } catch (IOException e) {
             LOGGER.severe("Failed to close the connection");
@@ -406,12 +445,7 @@ public class ClientHandler extends Thread {
     private void handleBye() {
         ByeResponse byeResponse = new ByeResponse();
         sendMessage(BYE_RESP, byeResponse);
-
-        try {
-            clientSocket.close();
-        } catch (IOException e) {
-            LOGGER.severe("Error while closing: " + e.getMessage());
-        }
+        connection.close();
     }
 
 
@@ -424,9 +458,7 @@ public class ClientHandler extends Thread {
             System.out.println(username + " --> " + LIST_USERS_REQ);
 
             // Get the list of connected usernames
-            List<String> connectedUsers = ServerSetUp.getUsers().stream()
-                    .map(ClientHandler::getUsername)
-                    .collect(Collectors.toList());
+            List<String> connectedUsers = new ArrayList<>(ServerSetUp.getUsernames());
 
             ListOfUsers listUsersResponse = new ListOfUsers();
             listUsersResponse.setStatus("OK");
@@ -450,19 +482,35 @@ public class ClientHandler extends Thread {
      *
      * @param message The file.txt transfer request payload.
      */
-    private void handleFileTransfer(String message) {
+    private void handleFileTransfer(Payload message) {
         try {
-            FileTransferRequest fileTransferRequest = objectMapper.readValue(message, FileTransferRequest.class);
+            FileTransferRequest fileTransferRequest = message.read(FileTransferRequest.class);
+
+            if (fileTransferRequest.isSpool() || fileTransferRequest.getReceivers() != null) {
+                spoolFileTransfer(fileTransferRequest);
+                return;
+            }
 
             // Extract information from the file.txt transfer request
             String receiver = fileTransferRequest.getReceiver();
             String filename = fileTransferRequest.getFilename();
 
             if (isUserLoggedIn(receiver)) {
+                if (serveFromCache(fileTransferRequest, List.of(receiver))) {
+                    return;
+                }
+
                 // Log the routing of the file.txt transfer request
                 System.out.println("Routing file.txt transfer request of " + filename + " from : " +
                         this.username + " to " + receiver);
 
+                // The server names the sender and remembers the offer, the receiver's answer is checked against it
+                TransferMonitor monitor = ServerSetUp.getTransferMonitor();
+                while (fileTransferRequest.getTransferId() == null
+                        || !monitor.offer(fileTransferRequest.getTransferId(), this.username, receiver)) {
+                    fileTransferRequest.setTransferId(UUID.randomUUID());
+                }
+
                 // Send the file.txt transfer request to the receiver
                 ClientHandler receiverHandler = getUserHandler(receiver);
                 if (receiverHandler != null) {
@@ -482,24 +530,125 @@ public class ClientHandler extends Thread {
     }
 
 
+    /**
+     * Reserves room in the spool for a file and tells the sender to upload it right away. The file may be
+     * for several receivers: it is uploaded once and delivered to each of them. The receivers do not have to
+     * be online; each is offered the file as soon as the upload starts, or when they next log in.
+     *
+     * @param request The sender's file transfer request.
+     */
+    private void spoolFileTransfer(FileTransferRequest request) {
+        FileTransferResponse response = new FileTransferResponse();
+        response.setSender(this.username);
+        response.setTransferId(request.getTransferId());
+
+        List<String> receivers = request.getReceivers() != null
+                ? request.getReceivers().stream().distinct().toList()
+                : Collections.singletonList(request.getReceiver());
+        if (receivers.isEmpty() || receivers.stream().anyMatch(receiver -> receiver == null || !isValidUsername(receiver))
+                || request.getTransferId() == null || request.getSize() < 0) {
+            response.setStatus("ERROR");
+            response.setCode(RECIPIENT_NOT_FOUND);
+        } else if (receivers.contains(this.username)) {
+            response.setStatus("ERROR");
+            response.setCode(SEND_TO_SELF_ERROR);
+        } else if (receivers.size() > FILE_TRANSFER_MAX_RECEIVERS) {
+            response.setStatus("ERROR");
+            response.setCode(TOO_MANY_RECEIVERS);
+        } else {
+            // The spooled file is downloaded over a single stream, whatever the sender offered
+            request.setSender(this.username);
+            request.setStreams(1);
+
+            if (serveFromCache(request, receivers)) {
+                return;
+            }
+            if (ServerSetUp.getFileTransferSpool().reserve(request, receivers)) {
+                System.out.println("Spooling " + request.getFilename() + " from " + this.username + " for " +
+                        String.join(", ", receivers));
+                response.setStatus("SPOOL");
+                response.setStreams(1);
+                response.setCodec(TransferCodec.negotiate(request.getCodecs()));
+            } else {
+                response.setStatus("ERROR");
+                response.setCode(SPOOL_QUOTA_EXCEEDED);
+            }
+        }
+
+        sendMessage(FILE_TRANSFER_RESPONSE, response);
+    }
+
+
+    /**
+     * Skips the upload if the server has the announced content in its cache from an earlier upload by the same
+     * user: the sender is told it is done, and the receivers are offered the file as a spooled one, right away
+     * or when they next log in.
+     *
+     * @param request   The sender's file transfer request.
+     * @param receivers The users to deliver the file to.
+     * @return False if the content is not cached, so the file has to be sent.
+     */
+    private boolean serveFromCache(FileTransferRequest request, List<String> receivers) {
+        request.setSender(this.username);
+        if (!ServerSetUp.getFileTransferSpool().reserveCached(request, receivers)) {
+            return false;
+        }
+
+        FileTransferResponse response = new FileTransferResponse();
+        response.setSender(this.username);
+        response.setTransferId(request.getTransferId());
+        response.setStatus("CACHED");
+        sendMessage(FILE_TRANSFER_RESPONSE, response);
+        return true;
+    }
+
+
     /**
      * Handles the response to a file.txt transfer request, completing the handshake.
      *
      * @param message The file.txt transfer response payload.
      */
-    private void handleHandshakeResponse(String message) {
+    private void handleHandshakeResponse(Payload message) {
         try {
-            FileTransferResponse handshakeResponse = objectMapper.readValue(message, FileTransferResponse.class);
+            FileTransferResponse handshakeResponse = message.read(FileTransferResponse.class);
+
+            // A spooled file is downloaded from the server, its sender is not involved anymore
+            if (ServerSetUp.getFileTransferSpool().contains(handshakeResponse.getTransferId())) {
+                if ("NO".equals(handshakeResponse.getStatus())) {
+                    ServerSetUp.getFileTransferSpool().decline(handshakeResponse.getTransferId(), this.username);
+                } else if ("OK".equals(handshakeResponse.getStatus())) {
+                    ServerSetUp.getFileTransferSpool().accept(handshakeResponse.getTransferId(), this.username,
+                            handshakeResponse.getOffset());
+                }
+                return;
+            }
 
-            // Extract information from the handshake response
-            String sender = handshakeResponse.getSender();
+            // Extract information from the handshake response; only the user it was offered to can answer it
+            UUID transferId = handshakeResponse.getTransferId();
+            String sender = transferId != null
+                    ? ServerSetUp.getTransferMonitor().offeredBy(transferId, this.username) : null;
             String status = handshakeResponse.getStatus();
 
-            if (isUserLoggedIn(sender)) {
+            if (sender == null) {
+                PrivateMessage response = new PrivateMessage();
+                response.setStatus("ERROR");
+                response.setCode(NOT_A_PARTICIPANT);
+                response.setMessage("No such file transfer request");
+                sendMessage(FILE_TRANSFER_RESPONSE, response);
+
+            } else if (isUserLoggedIn(sender)) {
                 // Send the file.txt transfer response to the sender to complete the handshake
                 ClientHandler receiverHandler = getUserHandler(sender);
 
                 if (receiverHandler != null) {
+                    // The relayed streams are reported to both parties and count against the sender's bandwidth
+                    if ("OK".equals(status)) {
+                        ServerSetUp.getTransferMonitor().expect(transferId, sender, username,
+                                handshakeResponse.getOffset(), handshakeResponse.getStreams());
+                    } else if ("NO".equals(status)) {
+                        ServerSetUp.getTransferMonitor().withdraw(transferId);
+                    }
+                    handshakeResponse.setSender(sender);
                     receiverHandler.sendMessage(FILE_TRANSFER_RESPONSE, handshakeResponse);
                 }
 
@@ -523,9 +672,9 @@ public class ClientHandler extends Thread {
      *
      * @param payload The encrypted message request payload.
      */
-    private void handleEncryptedMessageReq(String payload) {
+    private void handleEncryptedMessageReq(Payload payload) {
         try {
-            EncryptedMessageRequest encryptedMessageRequest = objectMapper.readValue(payload, EncryptedMessageRequest.class);
+            EncryptedMessageRequest encryptedMessageRequest = payload.read(EncryptedMessageRequest.class);
 
             String receiver = encryptedMessageRequest.getReceiver();
 
@@ -558,9 +707,9 @@ public class ClientHandler extends Thread {
      *
      * @param payload The encrypted message response payload.
      */
-    private void handleEncryptedMessageResponse(String payload) {
+    private void handleEncryptedMessageResponse(Payload payload) {
         try {
-            EncryptedMessageResponse response = objectMapper.readValue(payload, EncryptedMessageResponse.class);
+            EncryptedMessageResponse response = payload.read(EncryptedMessageResponse.class);
             String sender = response.getSender();
             String receiver = response.getReceiver();
             String publicKey = response.getPublicKey();
@@ -573,7 +722,7 @@ public class ClientHandler extends Thread {
                 senderHandler.sendMessage(SECURE_MESSAGE_RES,response);
             }
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
@@ -584,9 +733,9 @@ public class ClientHandler extends Thread {
      *
      * @param payload The encrypted message payload.
      */
-    private void handleEncryptedMessage(String payload) {
+    private void handleEncryptedMessage(Payload payload) {
         try {
-            EncryptedMessage message = objectMapper.readValue(payload, EncryptedMessage.class);
+            EncryptedMessage message = payload.read(EncryptedMessage.class);
 
             String encryptedMessage = message.getEncryptedMessage();
             String sessionKey = message.getSessionKey();
@@ -600,7 +749,7 @@ public class ClientHandler extends Thread {
 
             System.out.println(this.username + " -> " + receiver +
                     " { DM: " + encryptedMessage + "}");
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
@@ -630,9 +779,7 @@ public class ClientHandler extends Thread {
      * @return The handler for the user, or null if not found.
      */
     ClientHandler getUserHandler(String username) {
-        return ServerSetUp.getUsers().stream()
-                .filter(client -> client.username.equals(username))
-                .findFirst().orElse(null);
+        return ServerSetUp.getUserByUsername(username);
     }
 
 
@@ -648,20 +795,50 @@ public class ClientHandler extends Thread {
 
 
     /**
-     * Checks if the given username is already in use.
+     * Gets the username of the current client.
      *
-     * @param username The username to check.
-     * @return True if the username is in use, false otherwise.
+     * @return The username.
      */
-    private boolean isUsernameInUse(String username) { return ServerSetUp.containsUser(username); }
+    public String getUsername() { return username; }
 
 
     /**
-     * Gets the username of the current client.
+     * Gets the queue of frames waiting to be written to the client.
      *
-     * @return The username.
+     * @return The outbound queue.
      */
-    public String getUsername() { return username; }
+    OutboundQueue getOutboundQueue() {
+        return connection.getOutboundQueue();
+    }
+
+
+    /**
+     * Gets the game the client is in.
+     *
+     * @return The game, or null if the client is not in one.
+     */
+    GameHandler getGame() {
+        return game.get();
+    }
+
+    /**
+     * Puts the client in a game, unless it is already in one; a client plays one game at a time.
+     *
+     * @param game The game to enter.
+     * @return True if the client entered the game.
+     */
+    boolean enterGame(GameHandler game) {
+        return this.game.compareAndSet(null, game);
+    }
+
+    /**
+     * Takes the client out of a game that has ended.
+     *
+     * @param game The game that ended.
+     */
+    void leaveGame(GameHandler game) {
+        this.game.compareAndSet(game, null);
+    }
 
     @Override
     public String toString() {
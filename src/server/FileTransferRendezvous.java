@@ -0,0 +1,244 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static java.nio.charset.StandardCharsets.*;
+import static shared.Constant.*;
+
+/**
+ * Pairs the two sides of a file transfer on the transfer port. Each connection starts with its role
+ * ('S' for the sender, 'R' for the receiver, 'U' for an upload to the {@link FileTransferSpool}), the 36 character transfer UUID and a stream index byte, since a
+ * large file may be sent as several ranges over parallel connections. The first side of a stream to arrive is
+ * parked under its UUID and index until the peer with the opposite role shows up, or until
+ * the rendezvous timeout closes it. A matched pair is relayed on the worker of whichever side arrived last,
+ * so the acceptor is never blocked and any number of transfers can run at once without being cross-wired.
+ * The relay moves bytes between the two channels through a pooled direct buffer, so file content is never
+ * copied into the Java heap, at the rate the {@link TransferScheduler} allows it, while the
+ * {@link TransferMonitor} follows its progress.
+ */
+class FileTransferRendezvous {
+    private static final int UUID_LENGTH = 36;
+
+    private final Map<String, ParkedSide> parked = new ConcurrentHashMap<>();
+    private final Map<String, TransferCounter> activeTransfers = new ConcurrentHashMap<>();
+    private final BufferPool bufferPool = new BufferPool(FILE_TRANSFER_BUFFER_BYTES, FILE_TRANSFER_POOLED_BUFFERS);
+    private final FileTransferSpool spool;
+    private final TransferScheduler scheduler;
+    private final TransferMonitor monitor;
+
+
+    FileTransferRendezvous(FileTransferSpool spool, TransferScheduler scheduler, TransferMonitor monitor) {
+        this.spool = spool;
+        this.scheduler = scheduler;
+        this.monitor = monitor;
+    }
+
+
+    /**
+     * Reads the handshake of a new transfer connection and either parks it or starts relaying to its peer.
+     * Runs on a worker thread, never on the acceptor.
+     *
+     * @param channel The accepted connection.
+     */
+    void arrive(SocketChannel channel) {
+        String transferId;
+        UUID uuid;
+        char role;
+
+        // Blocking channel reads ignore SO_TIMEOUT, so a client that stalls the handshake is closed by a timer
+        TimerWheel.Timeout handshakeTimeout = TimerWheel.shared().schedule(() -> closeQuietly(channel),
+                FILE_TRANSFER_HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        try {
+            ByteBuffer handshake = ByteBuffer.allocate(1 + UUID_LENGTH + 1);
+            while (handshake.hasRemaining()) {
+                if (channel.read(handshake) < 0) {
+                    throw new EOFException("Connection closed during the handshake");
+                }
+            }
+
+            if (!handshakeTimeout.cancel()) {
+                throw new SocketTimeoutException("Handshake timed out");
+            }
+
+            handshake.flip();
+            role = (char) handshake.get();
+            String uuidText = US_ASCII.decode(handshake.slice(handshake.position(), UUID_LENGTH)).toString();
+            transferId = uuidText + "#" + Byte.toUnsignedInt(handshake.get(1 + UUID_LENGTH));
+            uuid = UUID.fromString(uuidText);
+
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid transfer id in the file transfer handshake");
+            closeQuietly(channel);
+            return;
+        } catch (AsynchronousCloseException e) {
+            System.err.println("File transfer handshake timed out");
+            return;
+        } catch (IOException e) {
+            System.err.println("File transfer handshake failed: " + e.getMessage());
+            handshakeTimeout.cancel();
+            closeQuietly(channel);
+            return;
+        }
+
+        if (role == 'U') {
+            spool.upload(uuid, channel);
+            return;
+        }
+        if (role == 'R' && spool.download(uuid, channel)) {
+            return;
+        }
+
+        if (role != 'S' && role != 'R') {
+            System.err.println("Invalid first byte received: " + role);
+            closeQuietly(channel);
+            return;
+        }
+
+        match(transferId, uuid, new ParkedSide(role, channel));
+    }
+
+
+    private void match(String transferId, UUID uuid, ParkedSide side) {
+        while (true) {
+            ParkedSide peer = parked.putIfAbsent(transferId, side);
+
+            if (peer == null) {
+                System.out.println((side.role == 'S' ? "Sender" : "Receiver") + " waiting for transfer " + transferId);
+                side.timeout = TimerWheel.shared().schedule(() -> expire(transferId, side),
+                        FILE_TRANSFER_RENDEZVOUS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            if (peer.role == side.role) {
+                System.out.println("Another " + (side.role == 'S' ? "sender" : "receiver") +
+                        " attempted to join transfer " + transferId + ". Rejecting connection.");
+                closeQuietly(side.channel);
+                return;
+            }
+
+            // Whoever removes the parked peer owns the pair; if it just expired, try to park again
+            if (parked.remove(transferId, peer)) {
+                if (peer.timeout != null) {
+                    peer.timeout.cancel();
+                }
+
+                ParkedSide sender = side.role == 'S' ? side : peer;
+                ParkedSide receiver = side.role == 'S' ? peer : side;
+                relay(transferId, uuid, sender.channel, receiver.channel);
+                return;
+            }
+        }
+    }
+
+
+    private void expire(String transferId, ParkedSide side) {
+        if (parked.remove(transferId, side)) {
+            System.out.println("No peer arrived for transfer " + transferId + ", closing the connection");
+            closeQuietly(side.channel);
+        }
+    }
+
+
+    private void relay(String transferId, UUID uuid, SocketChannel sender, SocketChannel receiver) {
+        TransferCounter counter = new TransferCounter();
+        activeTransfers.put(transferId, counter);
+        ServerMetrics.transferStarted();
+        ByteBuffer buffer = bufferPool.acquire();
+
+        // A transfer no receiver accepted has no known sender, so it is shaped on its own
+        String user = monitor.senderOf(uuid);
+        try (sender; receiver; TransferMonitor.Stream stream = monitor.open(uuid, null, null, sender, receiver);
+             TransferScheduler.Flow flow = scheduler.open(uuid, user != null ? user : uuid.toString(),
+                     FILE_TRANSFER_LIVE_WEIGHT)) {
+            stream.followRelay();
+            while (sender.read(buffer.limit(flow.quantum())) != -1) {
+                buffer.flip();
+                stream.relayed(buffer);
+                int count = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    counter.add(receiver.write(buffer));
+                }
+                buffer.clear();
+                flow.consumed(count);
+            }
+
+            System.out.println("Data transferred from sender to receiver: " + transferId + " (" + counter + ")");
+
+        } catch (IOException e) {
+            System.err.println("File transfer " + transferId + " failed after " + counter + ": " + e.getMessage());
+        } finally {
+            bufferPool.release(buffer);
+            activeTransfers.remove(transferId);
+            ServerMetrics.transferFinished(counter.getBytes());
+        }
+    }
+
+
+    /**
+     * @return A live view of the byte counters of the transfers that are being relayed, by transfer UUID.
+     */
+    Map<String, TransferCounter> getActiveTransfers() {
+        return Collections.unmodifiableMap(activeTransfers);
+    }
+
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing left to clean up
+        }
+    }
+
+
+    /**
+     * Bytes relayed by one transfer so far, and the resulting throughput.
+     */
+    static final class TransferCounter {
+        private final long startTime = System.nanoTime();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private void add(long count) {
+            bytes.addAndGet(count);
+        }
+
+        long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return The average throughput since the transfer started, in bytes per second.
+         */
+        double getBytesPerSecond() {
+            long elapsed = System.nanoTime() - startTime;
+            return elapsed == 0 ? 0 : bytes.get() * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return getBytes() + " bytes, " + String.format("%.1f", getBytesPerSecond() / (1024 * 1024)) + " MiB/s";
+        }
+    }
+
+
+    /**
+     * One side of a transfer waiting for its peer.
+     */
+    private static final class ParkedSide {
+        private final char role;
+        private final SocketChannel channel;
+        private volatile TimerWheel.Timeout timeout;
+
+        private ParkedSide(char role, SocketChannel channel) {
+            this.role = role;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,658 @@
+package server;
+
+import shared.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static shared.Constant.*;
+
+/**
+ * Store-and-forward delivery of files. Instead of holding the sender's connection open until the receivers
+ * show up, the server takes the upload ('U' on the transfer port) into a spool file keyed by transfer UUID
+ * and frees the sender. Each receiver gets a delivery with a transfer UUID of its own and downloads ('R') with
+ * {@link FileChannel#transferTo}, even while the upload is still coming in: the spool file is the buffer
+ * between the sender and every receiver, so a slow receiver never holds up the sender or the other receivers.
+ * The stream is stored exactly as the sender wrote it, so receivers still check every chunk CRC and the digest
+ * end to end. A receiver that kept part of an interrupted download resumes it: once the upload is stored, the
+ * chunks it already has are skipped and the rest is sent with a digest of its own, since the stored trailer
+ * covers the whole file. The spool has a disk quota, and a delivery that is not downloaded within the TTL is dropped.
+ * Uploads count against the sender's bandwidth and downloads against the receiver's, both at the spool weight.
+ * <p>
+ * Uploads of a whole file hashed with SHA-256 are verified once and then kept in a {@link BlobCache} under
+ * their content hash, so when the same user offers the same content again the upload is skipped and the
+ * receivers are served from the cache. Only spooled uploads fill the cache: relayed transfers go from socket
+ * to socket and are never stored, so they can only be served from it once the content was spooled before.
+ */
+class FileTransferSpool {
+    private static final int FRAMING_RESERVE_BYTES = 64 * 1024;
+
+    private final Map<UUID, Upload> uploads = new ConcurrentHashMap<>();
+    private final Map<UUID, Delivery> deliveries = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final Path directory;
+    private final BlobCache blobCache;
+    private final TransferScheduler scheduler;
+    private final TransferMonitor monitor;
+
+
+    FileTransferSpool(Path directory, TransferScheduler scheduler, TransferMonitor monitor) {
+        this.directory = directory;
+        this.scheduler = scheduler;
+        this.monitor = monitor;
+        this.blobCache = new BlobCache(directory, FILE_TRANSFER_BLOB_CACHE_BYTES);
+
+        // The spool index lives in memory, so whatever a previous run left behind can never be delivered
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*.{spool,blob}")) {
+                for (Path leftover : leftovers) {
+                    Files.deleteIfExists(leftover);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not prepare the spool directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Reserves room for a file the sender is about to upload. The receivers are offered the file as soon as
+     * the upload starts.
+     *
+     * @param request   The sender's request, whose transfer id the upload uses.
+     * @param receivers The users to deliver the file to.
+     * @return False if the spool does not have room for the file.
+     */
+    boolean reserve(FileTransferRequest request, List<String> receivers) {
+        if (!tryReserve(request.getSize())) {
+            return false;
+        }
+
+        Upload upload = new Upload(request, directory.resolve(request.getTransferId() + ".spool"));
+        upload.reservedBytes = request.getSize();
+        if (uploads.putIfAbsent(request.getTransferId(), upload) != null) {
+            release(upload.reservedBytes);
+            return false;
+        }
+
+        for (String receiver : receivers) {
+            addDelivery(upload, receiver);
+        }
+        return true;
+    }
+
+
+    /**
+     * Delivers a file straight from the cache if the request announces content the sender uploaded before,
+     * with the same size.
+     *
+     * @param request   The sender's request.
+     * @param receivers The users to deliver the file to.
+     * @return False if the content is not cached for the sender, so the file has to be sent.
+     */
+    boolean reserveCached(FileTransferRequest request, List<String> receivers) {
+        String contentHash = request.getContentHash();
+        BlobCache.Blob blob = contentHash != null
+                ? blobCache.acquire(contentHash, request.getSender(), request.getSize()) : null;
+        if (blob == null) {
+            return false;
+        }
+
+        Upload upload = new Upload(request, blob.path);
+        upload.useBlob(blob);
+        upload.state = UploadState.STORED;
+
+        System.out.println("Serving transfer " + request.getTransferId() + " from the cache");
+        for (String receiver : receivers) {
+            offer(addDelivery(upload, receiver));
+        }
+        return true;
+    }
+
+
+    /**
+     * Stores an upload. Runs on the worker that read the handshake.
+     *
+     * @param transferId The transfer id sent in the handshake.
+     * @param channel    The sender's connection, closed when the upload is stored.
+     */
+    void upload(UUID transferId, SocketChannel channel) {
+        Upload upload = uploads.remove(transferId);
+
+        if (upload == null || !upload.begin()) {
+            System.err.println("No upload was expected for transfer " + transferId);
+            FileTransferRendezvous.closeQuietly(channel);
+            return;
+        }
+
+        try (FileChannel output = FileChannel.open(upload.path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             TransferScheduler.Flow flow = scheduler.open(transferId, upload.request.getSender(),
+                     FILE_TRANSFER_SPOOL_WEIGHT);
+             TransferMonitor.Stream stream = monitor.open(transferId, upload.request.getSender(), null, channel)) {
+            // The header comes first, so the receivers can be offered the file while the rest is coming in
+            ChunkedTransfer.Header header = ChunkedTransfer.Header.readFrom(
+                    new DataInputStream(Channels.newInputStream(channel)));
+            header.writeTo(new DataOutputStream(Channels.newOutputStream(output)));
+            long position = output.position();
+            stream.followStored(header, position);
+            upload.started(header, position);
+            for (Delivery delivery : upload.deliveries) {
+                offer(delivery);
+            }
+
+            // The reservation covers the file data; the framing around it is reserved as it arrives
+            while (true) {
+                if (position >= upload.reservedBytes) {
+                    if (!tryReserve(FRAMING_RESERVE_BYTES)) {
+                        throw new IOException("The spool quota was exceeded");
+                    }
+                    upload.reservedBytes += FRAMING_RESERVE_BYTES;
+                }
+
+                // The channel is blocking, so nothing transferred means the sender closed the stream
+                long count = output.transferFrom(channel, position,
+                        Math.min(flow.quantum(), upload.reservedBytes - position));
+                if (count == 0) {
+                    break;
+                }
+                position += count;
+                upload.advance(position);
+                stream.stored(output, position);
+                flow.consumed(count);
+            }
+
+            // The sender is done, it does not have to wait for the upload to be verified
+            FileTransferRendezvous.closeQuietly(channel);
+
+            release(upload.reservedBytes - position);
+            upload.reservedBytes = position;
+            store(upload, output, position);
+            upload.finish(position);
+            System.out.println("Spooled transfer " + transferId + " (" + position + " bytes) for " +
+                    upload.deliveries.size() + " receiver(s)" + (upload.blob != null ? ", cached" : ""));
+
+        } catch (IOException e) {
+            System.err.println("Spooling transfer " + transferId + " failed: " + e.getMessage());
+            upload.fail();
+        } finally {
+            FileTransferRendezvous.closeQuietly(channel);
+        }
+    }
+
+
+    /**
+     * Checks a finished upload and, if it is a whole file hashed with SHA-256, verifies its digest against its
+     * content and moves it into the cache.
+     *
+     * @throws IOException If the stream is incomplete, or its digest does not match its content.
+     */
+    private void store(Upload upload, FileChannel output, long size) throws IOException {
+        boolean cacheable = TransferHash.SHA_256.equals(upload.header.hashAlgorithm()) && upload.header.rangeStart() == 0
+                && upload.header.rangeEnd() == upload.header.totalSize();
+
+        TransferHash contentHash = cacheable ? TransferHash.of(TransferHash.SHA_256) : null;
+        ChunkedTransfer.StoredStream stored = ChunkedTransfer.skim(output, contentHash);
+        if (!cacheable) {
+            return;
+        }
+
+        byte[] digest = contentHash.digest();
+        if (!MessageDigest.isEqual(digest, stored.digest())) {
+            throw new IOException("The digest of the upload does not match its content");
+        }
+
+        try {
+            BlobCache.Blob blob = blobCache.store(HexFormat.of().formatHex(digest), upload.path, stored, size,
+                    upload.request.getSender());
+            if (blob != null) {
+                // The cache accounts for the blob from now on
+                release(upload.reservedBytes);
+                upload.reservedBytes = 0;
+                upload.useBlob(blob);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not cache transfer " + upload.request.getTransferId() + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Serves a download if the transfer is a spooled delivery, following the upload if it is still running.
+     * The header is written again for this delivery, so a cached stream is delivered with the extension its
+     * current sender gave it, and with the range the receiver is still missing.
+     *
+     * @param transferId The transfer id sent in the handshake.
+     * @param channel    The receiver's connection.
+     * @return False if the transfer is not in the spool, so the connection should wait for a live sender.
+     */
+    boolean download(UUID transferId, SocketChannel channel) {
+        Delivery delivery = deliveries.get(transferId);
+        if (delivery == null) {
+            return false;
+        }
+
+        if (!delivery.begin()) {
+            System.err.println("Spooled transfer " + transferId + " is already being downloaded");
+            FileTransferRendezvous.closeQuietly(channel);
+            return true;
+        }
+
+        Upload upload = delivery.upload;
+        boolean complete = false;
+        try (FileChannel input = FileChannel.open(upload.path, StandardOpenOption.READ);
+             TransferScheduler.Flow flow = scheduler.open(transferId, delivery.request.getReceiver(),
+                     FILE_TRANSFER_SPOOL_WEIGHT);
+             TransferMonitor.Stream stream = monitor.open(transferId, null, delivery.request.getReceiver(), channel)) {
+            long offset = delivery.awaitAccepted();
+            upload.awaitData(0);
+            ChunkedTransfer.Header stored = upload.header;
+            ChunkedTransfer.ResumePoint resumed = null;
+            // Like a sender, start over if the offset does not fit this file
+            if (offset > stored.rangeStart() && offset <= stored.totalSize()) {
+                upload.awaitStored();
+                resumed = ChunkedTransfer.resume(input, stored, upload.dataOffset, offset);
+            }
+
+            ChunkedTransfer.Header header = new ChunkedTransfer.Header(
+                    ChunkedTransfer.extension(delivery.request.getFilename()), stored.totalSize(),
+                    resumed != null ? resumed.rangeStart() : stored.rangeStart(), stored.rangeEnd(),
+                    stored.chunkSize(), stored.hashAlgorithm(), stored.codec());
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            header.writeTo(new DataOutputStream(headerBytes));
+            writeFully(channel, headerBytes.toByteArray());
+
+            // A resumed download stops before the stored trailer and sends the one of its own range instead
+            long position = resumed != null ? resumed.position() : upload.dataOffset;
+            long end = resumed != null ? resumed.trailerPosition() : Long.MAX_VALUE;
+            stream.followStored(header, position);
+            long available;
+            while ((available = Math.min(upload.awaitData(position), end)) > position) {
+                long count = input.transferTo(position, Math.min(flow.quantum(), available - position), channel);
+                position += count;
+                stream.stored(input, position);
+                flow.consumed(count);
+            }
+            if (resumed != null) {
+                ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+                ChunkedTransfer.writeTrailer(new DataOutputStream(trailer), resumed.digest());
+                writeFully(channel, trailer.toByteArray());
+            }
+            complete = true;
+            System.out.println("Delivered spooled transfer " + transferId + " to " + delivery.request.getReceiver());
+
+        } catch (IOException e) {
+            // Kept, so the receiver can try again until the delivery expires
+            System.err.println("Download of spooled transfer " + transferId + " failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            FileTransferRendezvous.closeQuietly(channel);
+            delivery.end(complete);
+        }
+        return true;
+    }
+
+
+    /**
+     * Records that a receiver accepted a delivery, and how much of the file it already has. The answer comes
+     * on the chat connection, so the download may already be waiting for it.
+     *
+     * @param transferId The transfer id of the delivery.
+     * @param receiver   The user who accepted it.
+     * @param offset     The number of bytes the receiver kept from an earlier attempt.
+     */
+    void accept(UUID transferId, String receiver, long offset) {
+        Delivery delivery = deliveries.get(transferId);
+        if (delivery != null && delivery.request.getReceiver().equals(receiver)) {
+            monitor.expect(transferId, null, receiver, offset, 1);
+            delivery.accept(offset);
+        }
+    }
+
+
+    /**
+     * @return True if the transfer is a spooled delivery rather than relayed between the users.
+     */
+    boolean contains(UUID transferId) {
+        return transferId != null && deliveries.containsKey(transferId);
+    }
+
+
+    /**
+     * Drops a delivery the receiver declined.
+     */
+    void decline(UUID transferId, String receiver) {
+        Delivery delivery = deliveries.get(transferId);
+        if (delivery != null && delivery.request.getReceiver().equals(receiver)) {
+            System.out.println(receiver + " declined spooled transfer " + transferId);
+            delivery.remove();
+        }
+    }
+
+
+    /**
+     * @return The requests of the spooled files waiting for the user.
+     */
+    List<FileTransferRequest> pendingFor(String receiver) {
+        return deliveries.values().stream()
+                .filter(delivery -> delivery.request.getReceiver().equals(receiver) && delivery.upload.header != null)
+                .map(delivery -> delivery.request)
+                .toList();
+    }
+
+
+    /**
+     * @return The number of bytes stored or reserved in the spool, not counting the cache.
+     */
+    long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+
+    /**
+     * @return The number of bytes held by the cache.
+     */
+    long getCachedBytes() {
+        return blobCache.getTotalBytes();
+    }
+
+
+    private static void writeFully(SocketChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+
+    private Delivery addDelivery(Upload upload, String receiver) {
+        FileTransferRequest request = new FileTransferRequest();
+        request.setSender(upload.request.getSender());
+        request.setReceiver(receiver);
+        request.setFilename(upload.request.getFilename());
+        request.setSize(upload.request.getSize());
+        request.setContentHash(upload.request.getContentHash());
+        request.setTransferId(UUID.randomUUID());
+        request.setStreams(1);
+        request.setSpool(true);
+
+        Delivery delivery = new Delivery(request, upload);
+        upload.deliveries.add(delivery);
+        deliveries.put(request.getTransferId(), delivery);
+        delivery.expiry = TimerWheel.shared().schedule(() -> expire(delivery), FILE_TRANSFER_SPOOL_TTL_MS,
+                TimeUnit.MILLISECONDS);
+        return delivery;
+    }
+
+
+    /**
+     * Offers a delivery to its receiver if they are online; otherwise it is offered when they log in.
+     */
+    private void offer(Delivery delivery) {
+        ClientHandler receiver = ServerSetUp.getUserByUsername(delivery.request.getReceiver());
+        if (receiver != null) {
+            receiver.sendMessage(FILE_TRANSFER_REQUEST, delivery.request);
+        }
+    }
+
+
+    private void expire(Delivery delivery) {
+        System.out.println("Spooled transfer " + delivery.request.getTransferId() + " expired");
+        delivery.remove();
+    }
+
+
+    private boolean tryReserve(long bytes) {
+        while (true) {
+            long used = usedBytes.get();
+            if (used + bytes > FILE_TRANSFER_SPOOL_QUOTA_BYTES) {
+                return false;
+            }
+            if (usedBytes.compareAndSet(used, used + bytes)) {
+                return true;
+            }
+        }
+    }
+
+
+    private void release(long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+
+
+    private enum UploadState {
+        RESERVED, UPLOADING, STORED, FAILED
+    }
+
+
+    /**
+     * The stored stream of one upload, shared by the deliveries to all of its receivers. Downloads follow
+     * the upload as it grows; the stored data is deleted once no delivery needs it anymore.
+     */
+    private final class Upload {
+        private final FileTransferRequest request;
+        private final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+        private Path path;
+        private volatile UploadState state = UploadState.RESERVED;
+        private volatile ChunkedTransfer.Header header;
+        private long dataOffset;
+        private long written;
+        private long reservedBytes;
+        private BlobCache.Blob blob;
+        private int pendingDeliveries;
+        private boolean deleted;
+
+        private Upload(FileTransferRequest request, Path path) {
+            this.request = request;
+            this.path = path;
+        }
+
+        private synchronized void useBlob(BlobCache.Blob blob) {
+            this.blob = blob;
+            this.path = blob.path;
+            this.header = blob.stored.header();
+            this.dataOffset = blob.stored.dataOffset();
+            this.written = blob.size;
+        }
+
+        private synchronized boolean begin() {
+            if (state != UploadState.RESERVED) {
+                return false;
+            }
+            state = UploadState.UPLOADING;
+            return true;
+        }
+
+        private synchronized void started(ChunkedTransfer.Header header, long dataOffset) {
+            this.header = header;
+            this.dataOffset = dataOffset;
+            this.written = dataOffset;
+            notifyAll();
+        }
+
+        private synchronized void advance(long written) {
+            this.written = written;
+            notifyAll();
+        }
+
+        private void finish(long size) {
+            synchronized (this) {
+                written = size;
+                state = UploadState.STORED;
+                notifyAll();
+            }
+            deleteIfUnused();
+        }
+
+        private void fail() {
+            synchronized (this) {
+                state = UploadState.FAILED;
+                notifyAll();
+            }
+            for (Delivery delivery : deliveries) {
+                delivery.remove();
+            }
+            deleteIfUnused();
+        }
+
+        /**
+         * Waits until the stored stream extends past the position, or the upload ends.
+         *
+         * @return The end of the stored stream so far; equal to the position once the upload is complete.
+         * @throws IOException If the upload failed.
+         */
+        private synchronized long awaitData(long position) throws IOException, InterruptedException {
+            while (state != UploadState.STORED && (header == null || written <= position)) {
+                if (state == UploadState.FAILED) {
+                    throw new IOException("The upload failed");
+                }
+                wait();
+            }
+            return written;
+        }
+
+        /**
+         * Waits until the whole stream is stored.
+         *
+         * @throws IOException If the upload failed.
+         */
+        private synchronized void awaitStored() throws IOException, InterruptedException {
+            while (state != UploadState.STORED) {
+                if (state == UploadState.FAILED) {
+                    throw new IOException("The upload failed");
+                }
+                wait();
+            }
+        }
+
+        private synchronized void addDelivery() {
+            pendingDeliveries++;
+        }
+
+        private void removeDelivery() {
+            synchronized (this) {
+                pendingDeliveries--;
+            }
+            deleteIfUnused();
+        }
+
+        private void deleteIfUnused() {
+            synchronized (this) {
+                if (deleted || pendingDeliveries > 0 || state == UploadState.UPLOADING) {
+                    return;
+                }
+                if (state == UploadState.RESERVED) {
+                    // Nobody wants the file anymore, so the upload is not accepted when it comes
+                    state = UploadState.FAILED;
+                    uploads.remove(request.getTransferId(), this);
+                }
+                deleted = true;
+            }
+
+            release(reservedBytes);
+            if (blob != null) {
+                blobCache.release(blob);
+                return;
+            }
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Could not delete spool file " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * The delivery of an upload to one receiver. While it is being downloaded, removing it only marks it, and
+     * the download drops it when it ends.
+     */
+    private final class Delivery {
+        private final FileTransferRequest request;
+        private final Upload upload;
+        private boolean downloading;
+        private boolean removeWhenIdle;
+        private boolean removed;
+        private long acceptedOffset = -1;
+        private TimerWheel.Timeout expiry;
+
+        private Delivery(FileTransferRequest request, Upload upload) {
+            this.request = request;
+            this.upload = upload;
+            upload.addDelivery();
+        }
+
+        private synchronized void accept(long offset) {
+            acceptedOffset = Math.max(0, offset);
+            notifyAll();
+        }
+
+        /**
+         * Waits for the receiver to accept the download on its chat connection, which may take a little longer
+         * than its connection to the transfer port, and takes the offset it sent.
+         *
+         * @return The number of bytes the receiver already has, or 0 if it did not answer in time.
+         */
+        private synchronized long awaitAccepted() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FILE_TRANSFER_HANDSHAKE_TIMEOUT_MS);
+            long remaining;
+            while (acceptedOffset < 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            long offset = Math.max(0, acceptedOffset);
+            acceptedOffset = -1;
+            return offset;
+        }
+
+        private synchronized boolean begin() {
+            if (downloading || removed || removeWhenIdle) {
+                return false;
+            }
+            downloading = true;
+            return true;
+        }
+
+        private void end(boolean complete) {
+            synchronized (this) {
+                downloading = false;
+                if (!complete && !removeWhenIdle) {
+                    return;
+                }
+            }
+            delete();
+        }
+
+        private void remove() {
+            synchronized (this) {
+                if (downloading) {
+                    removeWhenIdle = true;
+                    return;
+                }
+            }
+            delete();
+        }
+
+        private void delete() {
+            synchronized (this) {
+                if (removed) {
+                    return;
+                }
+                removed = true;
+            }
+
+            deliveries.remove(request.getTransferId(), this);
+            if (expiry != null) {
+                expiry.cancel();
+            }
+            upload.removeDelivery();
+        }
+    }
+}
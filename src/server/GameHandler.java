@@ -1,122 +1,179 @@
 package server;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import com.fasterxml.jackson.core.*;
-import com.fasterxml.jackson.databind.*;
 import shared.*;
 
 import static server.ClientHandler.*;
 import static shared.Constant.*;
 
-public class GameHandler {
-    private static ClientHandler clientHandler;
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final Map<ClientHandler, Long> playersTimestamp = new HashMap<>();
-    private static GameState gameState = GameState.IDLE;
-    private static int numberToGuess;
-    private static Timer gameTimer = new Timer();
-    private static long gameStartTime;
-    private static final List<ClientHandler> clientsInGame = new ArrayList<>();
+/**
+ * One guessing game, from the request that starts it to its results. The {@link GameManager} creates a game
+ * for every START_GAME_REQ and routes the joins and guesses for it here, so each game has its own players,
+ * number to guess and timers. The join window and the game timeout run on the shared {@link TimerWheel}, so a
+ * game costs no thread of its own, and are cancelled when the game ends.
+ * <p>
+ * A game is an actor: the starts, joins, guesses and timeouts for it are posted to its mailbox by the client
+ * and timer threads, and processed one at a time on the shared game workers. Only one worker drains a game at
+ * a time, so its state needs no locks, and different games are played in parallel.
+ */
+class GameHandler {
+    private final GameManager manager;
+    private final long id;
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Map<ClientHandler, Long> playersTimestamp = new HashMap<>();
+    private GameState gameState = GameState.IDLE;
+    private int numberToGuess;
+    private TimerWheel.Timeout joinTimeout;
+    private TimerWheel.Timeout gameTimeout;
+    private long gameStartTime;
+    private final List<ClientHandler> clientsInGame = new ArrayList<>();
 
-    public GameHandler(ClientHandler clientHandler) {
-        GameHandler.clientHandler = clientHandler;
+    GameHandler(GameManager manager, long id) {
+        this.manager = manager;
+        this.id = id;
+    }
+
+
+    long getId() {
+        return id;
     }
 
 
     /**
      * Initiates the guessing game upon a client's request.
-     * Validates the request and notifies connected clients about the game initiation.
      *
      * @param requester The ClientHandler representing the client requesting to start the game.
      */
-    public static void startGuessingGame(ClientHandler requester) {
-        // Validate the game initiation request and check the game state
-        if (validateRequestForGame(requester.getUsername())) {
-            // Notify the requester then inform other connected users about the ongoing game
-            acknowledgeRequestForGame(requester);
-            // Schedule a waiting time for 10 seconds to allow others to join
-            startJoinTimer();
-            // Add the requester to the game while waiting for others to join
-            clientsInGame.add(requester);
-        }
+    void startGuessingGame(ClientHandler requester) {
+        post(() -> start(requester));
     }
 
 
-    private static boolean validateRequestForGame(String requester) {
-        if (!isUserLoggedIn(requester)) {
-            sendGameErrorResponse(6000);
-            return false;
+    /**
+     * Allows a client to join the guessing game while it waits for players.
+     *
+     * @param client The ClientHandler representing the client joining the game.
+     */
+    void joinGuessingGame(ClientHandler client) {
+        post(() -> join(client));
+    }
 
-        } else if (gameState != GameState.IDLE) {
-            sendGameErrorResponse(6003);
-            return false;
+
+    /**
+     * Processes a guess from a client.
+     *
+     * @param guess   The client's guess, or null if it could not be read.
+     * @param guesser The ClientHandler representing the guessing client.
+     */
+    void checkClientGuess(GuessingGame guess, ClientHandler guesser) {
+        post(() -> guess(guess, guesser));
+    }
+
+
+    /**
+     * Adds a command to the mailbox, and schedules the game on a worker unless it is already scheduled.
+     */
+    private void post(Runnable command) {
+        mailbox.offer(command);
+        if (scheduled.compareAndSet(false, true)) {
+            manager.execute(this::drain);
         }
+    }
 
-        return true;
 
+    /**
+     * Processes the commands in the mailbox, at most a batch at a time so busy games take turns on the workers.
+     */
+    private void drain() {
+        try {
+            for (int i = 0; i < GAME_MAILBOX_BATCH; i++) {
+                Runnable command = mailbox.poll();
+                if (command == null) {
+                    break;
+                }
+                try {
+                    command.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Game " + id + " failed to process a command: " + e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // A command posted while the flag was still set has to be picked up here
+            if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+                manager.execute(this::drain);
+            }
+        }
     }
 
 
-    private static void sendGameErrorResponse(int code) {
-        GameNotification gameNotification = new GameNotification();
-        gameNotification.setStatus("ERROR");
-        gameNotification.setCode(code);
-        clientHandler.sendMessage(GAME_NOTIFICATION, gameNotification);
+    /**
+     * Notifies connected clients about the game initiation.
+     */
+    private void start(ClientHandler requester) {
+        // Add the requester to the game while waiting for others to join
+        clientsInGame.add(requester);
+        // Schedule a waiting time for 10 seconds to allow others to join
+        startJoinTimer();
+        manager.opened(this);
+        // Notify the requester then inform other connected users about the ongoing game
+        acknowledgeRequestForGame(requester);
     }
 
 
-    private static void acknowledgeRequestForGame(ClientHandler requester) {
-        // Check if the requester is already in the game
-        if (!clientsInGame.contains(requester)) {
-            // Send an acknowledgment message
-            StartGuessingGame gameResponse = new StartGuessingGame();
-            gameResponse.setStatus("OK");
-            requester.sendMessage(START_GAME_RESP, gameResponse);
+    private void acknowledgeRequestForGame(ClientHandler requester) {
+        // Send an acknowledgment message
+        StartGuessingGame gameResponse = new StartGuessingGame();
+        gameResponse.setStatus("OK");
+        gameResponse.setGameId(id);
+        requester.sendMessage(START_GAME_RESP, gameResponse);
 
-            // Log user initiation
-            System.out.println(requester.getUsername() + " --> " + START_GAME_REQ);
+        // Log user initiation
+        System.out.println(requester.getUsername() + " --> " + START_GAME_REQ + " {game " + id + "}");
 
-            // Send a game initiation message to users and log their join
-            sendGameInitiationMessageToUsers(requester.getUsername());
-        }
+        // Send a game initiation message to users and log their join
+        sendGameInitiationMessageToUsers(requester.getUsername());
     }
 
 
-    private static void sendGameInitiationMessageToUsers(String initiatorUsername) {
-        for (ClientHandler client : ServerSetUp.getUsers()) {
-            if (client != null && client.getUsername() != null && !client.getUsername().equals(initiatorUsername)) {
-                GameNotification gameNotification = new GameNotification();
-                gameNotification.setStatus("OK");
-                gameNotification.setMessage("A guessing game has been initiated. Join now!");
+    private void sendGameInitiationMessageToUsers(String initiatorUsername) {
+        GameNotification gameNotification = new GameNotification();
+        gameNotification.setStatus("OK");
+        gameNotification.setMessage("Guessing game " + id + " has been initiated by " + initiatorUsername + ". Join now!");
+        OutboundFrame frame = OutboundFrame.of(GAME_NOTIFICATION, gameNotification);
 
-                client.sendMessage(GAME_NOTIFICATION, gameNotification);
+        for (ClientHandler client : ServerSetUp.getUsers()) {
+            if (client.getUsername() != null && !client.getUsername().equals(initiatorUsername)) {
+                client.sendFrame(frame);
             }
         }
     }
 
 
     /**
-     * Allows a client to join the ongoing guessing game.
-     * Validates the request and adds the client to the list of participants.
-     *
-     * @param client The ClientHandler representing the client joining the game.
+     * Validates the join request and adds the client to the list of participants.
      */
-    public static void joinGuessingGame(ClientHandler client) {
+    private void join(ClientHandler client) {
         // Check if the user is logged in
         if (!isUserLoggedIn(client.getUsername())) {
             sendErrorResponse(client, USER_NOT_LOGGED_IN);
             return;
         }
 
-        // Check if a game has been requested
+        // Check if the game is still waiting for players
         if (gameState != GameState.REQUESTED) {
-            sendErrorResponse(client, NO_RUNNING_GAME);
+            sendErrorResponse(client, gameState == GameState.RUNNING ? GAME_HAS_ALREADY_STARTED_CANNOT_JOIN : NO_RUNNING_GAME);
             return;
         }
 
-        // Check if the user has already joined the game
-        if (clientsInGame.contains(client)) {
+        // Check if the user has already joined this game, or plays another one
+        if (!client.enterGame(this)) {
             sendErrorResponse(client, USER_ALREADY_JOINED);
             return;
         }
@@ -125,19 +182,20 @@ public class GameHandler {
         clientsInGame.add(client);
 
         // Notify the client that they have successfully joined the game
-        GameNotification message = new GameNotification();
+        JoinGame message = new JoinGame();
         message.setStatus("OK");
+        message.setGameId(id);
         client.sendMessage(JOIN_GAME_RESP, message);
 
         // Log user join request and message in the server console
-        String joinRequestLog = client.getUsername() + " --> " + JOIN_GAME_REQ;
-        String joinMessageLog = client.getUsername() + " has joined the game.";
+        String joinRequestLog = client.getUsername() + " --> " + JOIN_GAME_REQ + " {game " + id + "}";
+        String joinMessageLog = client.getUsername() + " has joined game " + id + ".";
         System.out.println(joinRequestLog);
         System.out.println(joinMessageLog);
     }
 
 
-    private static void sendErrorResponse(ClientHandler client, int errorCode) {
+    static void sendErrorResponse(ClientHandler client, int errorCode) {
         GameNotification errorMessage = new GameNotification();
         errorMessage.setStatus("ERROR");
         errorMessage.setCode(errorCode);
@@ -149,25 +207,29 @@ public class GameHandler {
      * Starts a timer to wait for additional players to join the game.
      * Checks the number of players and either start the game or reset it if insufficient participants.
      */
-    private static void startJoinTimer() {
+    private void startJoinTimer() {
         gameState = GameState.REQUESTED;
 
-        Timer joiningTimer = new Timer();
-        joiningTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (clientsInGame.size() >= 2) {
-                    checkPlayersAndStartRounds();
-                } else {
-                    notifyRequesterGameCanceled();
-                    resetGuessingGame(false);
-                }
-            }
-        }, JOINING_TIME_MS);
+        joinTimeout = TimerWheel.shared().schedule(() -> post(this::closeJoinWindow), JOINING_TIME_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+
+    private void closeJoinWindow() {
+        if (gameState != GameState.REQUESTED) {
+            return;
+        }
+        manager.closed(this);
+        if (clientsInGame.size() >= 2) {
+            checkPlayersAndStartRounds();
+        } else {
+            notifyRequesterGameCanceled();
+            resetGuessingGame(false);
+        }
     }
 
 
-    private static void notifyRequesterGameCanceled() {
+    private void notifyRequesterGameCanceled() {
         ClientHandler requester = clientsInGame.get(0);
         GameNotification notification = new GameNotification();
         notification.setStatus("ERROR");
@@ -175,7 +237,7 @@ public class GameHandler {
         requester.sendMessage(GAME_NOTIFICATION, notification);
     }
 
-    private static void checkPlayersAndStartRounds() {
+    private void checkPlayersAndStartRounds() {
         if (clientsInGame.size() >= 2) {
             startPlayRounds();
         } else {
@@ -188,7 +250,7 @@ public class GameHandler {
      * Initiates the game rounds, selects the target number, and starts the guessing timer.
      * Sets the game state to RUNNING and notifies participants about the start of the game.
      */
-    private static void startPlayRounds() {
+    private void startPlayRounds() {
         gameState = GameState.RUNNING;
         sendPlayerList();
         numberToGuess = generateRandomNumber();
@@ -196,7 +258,7 @@ public class GameHandler {
     }
 
 
-    private static void sendPlayerList() {
+    private void sendPlayerList() {
         List<String> playersInGame = clientsInGame.stream()
                 .map(ClientHandler::getUsername)
                 .toList();
@@ -208,16 +270,15 @@ public class GameHandler {
     }
 
 
-    private static void sendIndividualJoinNotifications() {
-        for (ClientHandler client : clientsInGame) {
-            JoinGame individualNotification = new JoinGame();
-            individualNotification.setStatus("OK");
-            client.sendMessage(JOIN_GAME_RESP, individualNotification);
-        }
+    private void sendIndividualJoinNotifications() {
+        JoinGame individualNotification = new JoinGame();
+        individualNotification.setStatus("OK");
+        individualNotification.setGameId(id);
+        sendToPlayers(OutboundFrame.of(JOIN_GAME_RESP, individualNotification));
     }
 
 
-    private static void sendGameAnnouncement(List<String> playersInGame) {
+    private void sendGameAnnouncement(List<String> playersInGame) {
         // Send a broadcast message to announce the game and list of participants
         GameNotification gameNotification = new GameNotification();
         gameNotification.setStatus("OK");
@@ -235,30 +296,32 @@ public class GameHandler {
         gameNotification.setMessage(message.toString());
 
         // Send the formatted message to all clients
-        for (ClientHandler client : clientsInGame) {
-            client.sendMessage(GAME_NOTIFICATION, gameNotification);
-        }
+        sendToPlayers(OutboundFrame.of(GAME_NOTIFICATION, gameNotification));
     }
 
 
-    private static void sendUserList(List<String> playersInGame) {
+    private void sendUserList(List<String> playersInGame) {
         // Send a list of users to each client to let them see with whom they are playing
         ListOfUsers listUsersResponse = new ListOfUsers();
         listUsersResponse.setUsers(playersInGame);
-
-        for (ClientHandler client : clientsInGame) {
-            client.sendMessage(LIST_USERS_RESP, listUsersResponse);
-        }
+        sendToPlayers(OutboundFrame.of(LIST_USERS_RESP, listUsersResponse));
     }
 
 
-    private static void sendGameDetailsNotifications() {
+    private void sendGameDetailsNotifications() {
         GameNotification gameDetailsNotification = new GameNotification();
         gameDetailsNotification.setStatus("OK");
         gameDetailsNotification.setMessage("You can now make a guess between " + LOWER_BOUND + " & " + UPPER_BOUND + ". Good Luck!");
+        sendToPlayers(OutboundFrame.of(GAME_NOTIFICATION, gameDetailsNotification));
+    }
 
+
+    /**
+     * Sends the same encoded frame to every participant of the game.
+     */
+    private void sendToPlayers(OutboundFrame frame) {
         for (ClientHandler client : clientsInGame) {
-            client.sendMessage(GAME_NOTIFICATION, gameDetailsNotification);
+            client.sendFrame(frame);
         }
     }
 
@@ -269,30 +332,31 @@ public class GameHandler {
     }
 
 
-    private static void startGuessingGameTimer() {
+    private void startGuessingGameTimer() {
         gameStartTime = System.currentTimeMillis();
-        gameTimer = new Timer();
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                gameState = GameState.INFORM_USERS;
-                try {
-                    publishResults("TIMEOUT");
-                } catch (JsonProcessingException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        };
-        gameTimer.schedule(task, GAME_TIMEOUT_MILLISECONDS);
+        gameTimeout = TimerWheel.shared().schedule(() -> post(this::timeOut), GAME_TIMEOUT_MILLISECONDS,
+                TimeUnit.MILLISECONDS);
+    }
+
+
+    private void timeOut() {
+        // The timeout may have been posted just before the last player guessed correctly
+        if (gameState != GameState.RUNNING) {
+            return;
+        }
+        gameState = GameState.INFORM_USERS;
+        try {
+            publishResults("TIMEOUT");
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
     }
 
 
     /**
-     * Resets the game state to IDLE and notifies all clients about the insufficient players to start the game.
-     * Clears the list of participants.
+     * Cancels the game and notifies its players about the insufficient players to start the game.
      */
-    private static void resetGuessingGame(boolean timeoutReached) {
-        gameState = GameState.IDLE;
+    private void resetGuessingGame(boolean timeoutReached) {
 
         // Construct the appropriate notification based on the cancellation reason
         GameNotification resetNotification = new GameNotification();
@@ -305,48 +369,37 @@ public class GameHandler {
             System.out.println(GAME_NOTIFICATION + " {TIMEOUT == 2MIN }");
         }
 
-        // Send the notification to all clients
-        for (ClientHandler client : ServerSetUp.getUsers()) {
-            client.sendMessage(GAME_NOTIFICATION, resetNotification);
-        }
+        // Send the notification to the players
+        sendToPlayers(OutboundFrame.of(GAME_NOTIFICATION, resetNotification));
 
-        // Clear the list of participants
-        clientsInGame.clear();
+        endGame();
     }
 
 
     /**
-     * Processes incoming guesses from the client.
      * Sends appropriate responses to the client based on the guess result.
-     *
-     * @param payload The payload containing the client's guess.
-     * @param guesser The ClientHandler representing the guessing client.
      */
-    public static void checkClientGuess(String payload, ClientHandler guesser) {
+    private void guess(GuessingGame guess, ClientHandler guesser) {
         // Validate the guesser and ensure they are eligible to make a guess
         if (!validateGuess(guesser)) {
             return;
         }
 
-        GuessingGame guess;
-
-        try {
-            guess = objectMapper.readValue(payload, GuessingGame.class);
-
-            // Log the received guess in the server console
-            logReceivedGuess(guesser, guess);
-
-            // Check if the guess is within the allowed range; if not, send an error response
-            if (isGuessOutOfRange(guess, guesser)) {
-                return;
-            }
+        if (guess == null) {
+            sendNumberOutOfRangeError(guesser);
+            return;
+        }
 
-            // Process the client's guess and send appropriate responses
-            processClientGuess(guess, guesser);
+        // Log the received guess in the server console
+        logReceivedGuess(guesser, guess);
 
-        } catch (JsonProcessingException e) {
-            sendNumberOutOfRangeError(guesser);
+        // Check if the guess is within the allowed range; if not, send an error response
+        if (isGuessOutOfRange(guess, guesser)) {
+            return;
         }
+
+        // Process the client's guess and send appropriate responses
+        processClientGuess(guess, guesser);
     }
 
     private static void logReceivedGuess(ClientHandler guesser, GuessingGame guess) {
@@ -354,7 +407,7 @@ public class GameHandler {
                 "\"number\": " + guess.getNumber() + "}");
     }
 
-    private static void processClientGuess(GuessingGame guess, ClientHandler guesser) {
+    private void processClientGuess(GuessingGame guess, ClientHandler guesser) {
         // Create a response object for the client's guess
         GuessingGame guessResp = new GuessingGame();
         guessResp.setResult(Integer.compare(guess.getNumber(), numberToGuess));
@@ -374,7 +427,7 @@ public class GameHandler {
                 "\"result\": " + guessResp.getResult() + "}");
     }
 
-    private static void sendGuessStatus(GuessingGame guess, GuessingGame guessResp, ClientHandler guesser) {
+    private void sendGuessStatus(GuessingGame guess, GuessingGame guessResp, ClientHandler guesser) {
         GameNotification guessNum = new GameNotification();
         guessNum.setStatus("OK");
 
@@ -395,7 +448,7 @@ public class GameHandler {
         guesser.sendMessage(GUESS_NUMBER_RESP, guessResp);
     }
 
-    private static void handleCorrectGuess(GuessingGame guessResp, ClientHandler guesser) {
+    private void handleCorrectGuess(GuessingGame guessResp, ClientHandler guesser) {
         if (guessResp.getResult() == 0) {
             recordTimeStamp(guesser);
             checkForCompletion();
@@ -425,7 +478,7 @@ public class GameHandler {
     }
 
 
-    private static boolean validateGuess(ClientHandler guesser) {
+    private boolean validateGuess(ClientHandler guesser) {
         if (!isUserLoggedIn(guesser.getUsername())) {
             sendErrorResponse(guesser, USER_NOT_LOGGED_IN);
             return false;
@@ -445,16 +498,15 @@ public class GameHandler {
     }
 
 
-    private static void recordTimeStamp(ClientHandler guesser) {
+    private void recordTimeStamp(ClientHandler guesser) {
         long timeTaken = System.currentTimeMillis() - gameStartTime;
         playersTimestamp.put(guesser, timeTaken);
     }
 
 
-    private static void checkForCompletion() {
+    private void checkForCompletion() {
         if (playersTimestamp.size() == clientsInGame.size()) {
             gameState = GameState.INFORM_USERS;
-            gameTimer.cancel();
             try {
                 publishResults("ALL_GUESSED_CORRECTLY");
             } catch (JsonProcessingException e) {
@@ -466,12 +518,11 @@ public class GameHandler {
 
     /**
      * Publishes the results of the guessing game, including players' times and sorts the leaderboard.
-     * Constructs a GameResultsResponse and sends it to all clients.
-     * Clears game data and resets the game state to IDLE.
+     * Constructs a GameResultsResponse and sends it to the players, then ends the game.
      *
      * @param result The result string indicating the reason for game completion (e.g., TIMEOUT, ALL_GUESSED_CORRECTLY).
      */
-    private static void publishResults(String result) throws JsonProcessingException {
+    private void publishResults(String result) throws JsonProcessingException {
         // Map to store players' usernames and their corresponding times
         Map<String, String> results = new HashMap<>();
 
@@ -491,23 +542,40 @@ public class GameHandler {
 
         // Log the game results in the server console
         for (Map.Entry<String, String> entry : results.entrySet()) {
-            System.out.println(entry.getKey() + " <-- " + GAME_RESULTS + " " + objectMapper.writeValueAsString(results));
+            System.out.println(entry.getKey() + " <-- " + GAME_RESULTS + " " + Codec.writeAsString(results));
         }
 
         // Construct a GameResultsResponse object
         GuessingGame gameResultsResponse = new GuessingGame();
         gameResultsResponse.setStatus("OK");
         gameResultsResponse.setResults(results);
+        gameResultsResponse.setGameId(id);
+
+        // Send the results to the players
+        sendToPlayers(OutboundFrame.of(GAME_RESULTS, gameResultsResponse));
+
+        endGame();
+    }
 
-        // Send the results to all clients
+
+    /**
+     * Ends the game: its timers are cancelled, it can no longer be found, and its players are free to start or
+     * join another one.
+     */
+    private void endGame() {
+        gameState = GameState.FINISHED;
+        if (joinTimeout != null) {
+            joinTimeout.cancel();
+        }
+        if (gameTimeout != null) {
+            gameTimeout.cancel();
+        }
+        manager.finished(this);
         for (ClientHandler client : clientsInGame) {
-            client.sendMessage(GAME_RESULTS, gameResultsResponse);
+            client.leaveGame(this);
         }
-
-        // Clear data and reset game state
         clientsInGame.clear();
         playersTimestamp.clear();
-        gameState = GameState.IDLE;
     }
 
 
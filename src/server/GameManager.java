@@ -0,0 +1,140 @@
+package server;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import shared.*;
+
+import static server.ClientHandler.*;
+import static shared.Constant.*;
+
+/**
+ * Hosts the guessing games. Every game is a {@link GameHandler} with its own id, state, players and number to
+ * guess, so any number of games can run side by side. Requests find their game by id in a hash map, and every
+ * {@link ClientHandler} remembers the game it is in, so a guess without an id goes straight to the player's game.
+ * A join without an id picks the oldest game that is still waiting for players.
+ * <p>
+ * The games process their requests on a shared pool of {@code GAME_WORKERS} threads, however many are running.
+ */
+class GameManager {
+    private final AtomicLong nextGameId = new AtomicLong();
+    private final AtomicInteger nextWorkerId = new AtomicInteger();
+    private final ExecutorService workers = Executors.newFixedThreadPool(GAME_WORKERS, task -> {
+        Thread worker = new Thread(task, "game-worker-" + nextWorkerId.incrementAndGet());
+        worker.setDaemon(true);
+        return worker;
+    });
+    private final Map<Long, GameHandler> games = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, GameHandler> openGames = new ConcurrentSkipListMap<>();
+
+
+    /**
+     * Starts a new game for the requester, unless they are already playing one.
+     *
+     * @param requester The client requesting to start the game.
+     */
+    void startGame(ClientHandler requester) {
+        if (!isUserLoggedIn(requester.getUsername())) {
+            GameHandler.sendErrorResponse(requester, USER_NOT_LOGGED_IN);
+            return;
+        }
+        GameHandler game = new GameHandler(this, nextGameId.incrementAndGet());
+        if (!requester.enterGame(game)) {
+            GameHandler.sendErrorResponse(requester, USER_ALREADY_JOINED);
+            return;
+        }
+
+        game.startGuessingGame(requester);
+    }
+
+
+    /**
+     * Adds a client to the game named in the request, or to the oldest open game if it names none.
+     *
+     * @param payload The JOIN_GAME_REQ body.
+     * @param client  The client joining the game.
+     */
+    void joinGame(Payload payload, ClientHandler client) {
+        long gameId;
+        try {
+            gameId = payload.read(JoinGame.class).getGameId();
+        } catch (IOException e) {
+            gameId = 0;
+        }
+
+        GameHandler game;
+        if (gameId > 0) {
+            game = games.get(gameId);
+        } else {
+            Map.Entry<Long, GameHandler> oldest = openGames.firstEntry();
+            game = oldest != null ? oldest.getValue() : null;
+        }
+
+        if (game == null) {
+            GameHandler.sendErrorResponse(client, isUserLoggedIn(client.getUsername()) ? NO_RUNNING_GAME : USER_NOT_LOGGED_IN);
+            return;
+        }
+        game.joinGuessingGame(client);
+    }
+
+
+    /**
+     * Passes a guess to the game named in the request, or to the game the guesser is in.
+     *
+     * @param payload The GUESS_NUMBER_REQ body.
+     * @param guesser The client making the guess.
+     */
+    void checkGuess(Payload payload, ClientHandler guesser) {
+        GuessingGame guess;
+        try {
+            guess = payload.read(GuessingGame.class);
+        } catch (IOException e) {
+            // Reported by the game once the guesser is known to be playing it
+            guess = null;
+        }
+
+        GameHandler game = guess != null && guess.getGameId() > 0 ? games.get(guess.getGameId()) : guesser.getGame();
+
+        if (game == null) {
+            GameHandler.sendErrorResponse(guesser, isUserLoggedIn(guesser.getUsername()) ? NO_RUNNING_GAME : USER_NOT_LOGGED_IN);
+            return;
+        }
+        game.checkClientGuess(guess, guesser);
+    }
+
+
+    /**
+     * Runs a game's mailbox on a worker.
+     */
+    void execute(Runnable drain) {
+        workers.execute(drain);
+    }
+
+
+    /**
+     * Called by a game once it is ready for players to join, before it is announced.
+     */
+    void opened(GameHandler game) {
+        games.put(game.getId(), game);
+        openGames.put(game.getId(), game);
+    }
+
+
+    /**
+     * Called by a game once its join window has closed.
+     */
+    void closed(GameHandler game) {
+        openGames.remove(game.getId(), game);
+    }
+
+
+    /**
+     * Called by a game once it is over, whether it was played or cancelled.
+     */
+    void finished(GameHandler game) {
+        openGames.remove(game.getId(), game);
+        games.remove(game.getId(), game);
+    }
+}
@@ -5,6 +5,7 @@ public enum GameState {
         IDLE,
         REQUESTED,
         RUNNING,
-        INFORM_USERS
+        INFORM_USERS,
+        FINISHED
 
 }
@@ -0,0 +1,107 @@
+package server;
+
+import com.fasterxml.jackson.core.*;
+import shared.*;
+
+import java.io.*;
+import java.nio.*;
+
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * A fully encoded protocol line ({@code HEADER {json}\n}). Frames are immutable, so a message meant for many
+ * clients is serialized once and the same bytes are handed to every recipient's connection.
+ * Droppable frames (broadcasts) may be discarded for a client that cannot keep up.
+ */
+final class OutboundFrame {
+    private final byte[] bytes;
+    private final boolean droppable;
+
+    private OutboundFrame(byte[] bytes, boolean droppable) {
+        this.bytes = bytes;
+        this.droppable = droppable;
+    }
+
+    private OutboundFrame(byte[] bytes) {
+        this(bytes, false);
+    }
+
+
+    /**
+     * Encodes a message with a JSON payload.
+     *
+     * @param header The message header, or an empty string to send the bare payload.
+     * @param body   The payload to serialize.
+     * @return The encoded frame.
+     */
+    static OutboundFrame of(String header, Object body) {
+        try {
+            byte[] headerBytes = header.getBytes(UTF_8);
+            byte[] json = Codec.writeAsBytes(body);
+            int prefix = headerBytes.length == 0 ? 0 : headerBytes.length + 1;
+
+            byte[] line = new byte[prefix + json.length + 1];
+            if (prefix > 0) {
+                System.arraycopy(headerBytes, 0, line, 0, headerBytes.length);
+                line[headerBytes.length] = ' ';
+            }
+            System.arraycopy(json, 0, line, prefix, json.length);
+            line[line.length - 1] = '\n';
+
+            return new OutboundFrame(line);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Encodes a message that consists of a header only, such as PING.
+     *
+     * @param header The message header.
+     * @return The encoded frame.
+     */
+    static OutboundFrame of(String header) {
+        return new OutboundFrame((header + "\n").getBytes(UTF_8));
+    }
+
+
+    /**
+     * @return The same frame, marked as safe to discard for slow clients.
+     */
+    OutboundFrame droppable() {
+        return new OutboundFrame(bytes, true);
+    }
+
+
+    boolean isDroppable() {
+        return droppable;
+    }
+
+
+    /**
+     * @return A read-only view of the frame with its own position, so each recipient can drain it independently.
+     */
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+
+    int length() {
+        return bytes.length;
+    }
+
+
+    void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(bytes);
+    }
+
+
+    /**
+     * @return The line without its terminator, for logging.
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, bytes.length - 1, UTF_8);
+    }
+}
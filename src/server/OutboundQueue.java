@@ -0,0 +1,291 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import shared.*;
+
+import static shared.Constant.*;
+
+/**
+ * Bounded queue of frames waiting to be written to one client. Any thread may offer frames; a single consumer
+ * (the connection's writer task or its event loop) drains them. When the queue is full the configured
+ * {@link SlowConsumerPolicy} decides whether the frame waits, replaces an old broadcast, or gets the client
+ * disconnected.
+ */
+class OutboundQueue {
+    private final Deque<OutboundFrame> frames = new ArrayDeque<>();
+    private final Lock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private boolean closed;
+    private int highWaterMark;
+    private long dropped;
+
+
+    OutboundQueue() {
+        this(OUTBOUND_QUEUE_CAPACITY, SlowConsumerPolicy.configured());
+    }
+
+    OutboundQueue(int capacity, SlowConsumerPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+
+    /**
+     * @return The DSCN frame sent to a client that is disconnected for being too slow.
+     */
+    static OutboundFrame slowConsumerFrame() {
+        DCSN disconnect = new DCSN();
+        disconnect.setStatus("ERROR");
+        disconnect.setCode(SLOW_CONSUMER);
+        disconnect.setReason("Outbound queue is full");
+        return OutboundFrame.of(DSCN, disconnect);
+    }
+
+
+    /**
+     * Adds a frame, applying the slow consumer policy if the queue is full.
+     *
+     * @param frame    The frame to queue.
+     * @param mayBlock Whether the calling thread is allowed to wait for room; event loop threads are not.
+     * @return False if the client cannot keep up and should be disconnected, true otherwise.
+     */
+    boolean offer(OutboundFrame frame, boolean mayBlock) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+
+            if (frames.size() >= capacity && !makeRoom(frame, mayBlock)) {
+                // A broadcast that could not be queued is simply lost; anything else means the client is too slow
+                return closed || (frame.isDroppable() && policy == SlowConsumerPolicy.DROP_OLDEST_BROADCAST);
+            }
+
+            frames.addLast(frame);
+            ServerMetrics.frameQueued();
+            highWaterMark = Math.max(highWaterMark, frames.size());
+            notEmpty.signal();
+            return true;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Tries to free a slot for the given frame. Must be called with the lock held.
+     *
+     * @return True if the frame can now be added.
+     */
+    private boolean makeRoom(OutboundFrame frame, boolean mayBlock) {
+        switch (policy) {
+            case DROP_OLDEST_BROADCAST -> {
+                Iterator<OutboundFrame> iterator = frames.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().isDroppable()) {
+                        iterator.remove();
+                        ServerMetrics.frameDequeued();
+                        recordDrop();
+                        return true;
+                    }
+                }
+                if (frame.isDroppable()) {
+                    // Nothing older to discard, so the new broadcast is the one that is lost
+                    recordDrop();
+                }
+                return false;
+            }
+            case BLOCK -> {
+                if (!mayBlock) {
+                    return false;
+                }
+                long nanos = TimeUnit.MILLISECONDS.toNanos(OUTBOUND_BLOCK_TIMEOUT_MS);
+                try {
+                    while (frames.size() >= capacity && !closed && nanos > 0) {
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return frames.size() < capacity && !closed;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+
+    private void recordDrop() {
+        dropped++;
+        ServerMetrics.frameDropped();
+    }
+
+
+    /**
+     * Moves up to a batch worth of frames into the given list without waiting.
+     *
+     * @param batch     Receives the frames, oldest first.
+     * @param maxFrames The most frames to move.
+     * @param maxBytes  The most bytes to move; at least one frame is always moved if available.
+     * @return The number of frames moved.
+     */
+    int drainTo(List<OutboundFrame> batch, int maxFrames, int maxBytes) {
+        lock.lock();
+        try {
+            return drainLocked(batch, maxFrames, maxBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Waits for at least one frame, optionally lingers for more so they can share a single flush,
+     * and then moves up to a batch worth of frames into the given list.
+     *
+     * @param batch       Receives the frames, oldest first.
+     * @param maxFrames   The most frames to move.
+     * @param maxBytes    The most bytes to move; at least one frame is always moved if available.
+     * @param lingerNanos How long to wait for the batch to fill up once the first frame is there.
+     * @return The number of frames moved, or 0 once the queue is closed and fully drained.
+     * @throws InterruptedException If the writer is interrupted while waiting.
+     */
+    int takeBatch(List<OutboundFrame> batch, int maxFrames, int maxBytes, long lingerNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+
+            long nanos = lingerNanos;
+            while (frames.size() < maxFrames && !closed && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            return drainLocked(batch, maxFrames, maxBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    private int drainLocked(List<OutboundFrame> batch, int maxFrames, int maxBytes) {
+        int count = 0;
+        int bytes = 0;
+
+        while (count < maxFrames && !frames.isEmpty()) {
+            int length = frames.peekFirst().length();
+            if (count > 0 && bytes + length > maxBytes) {
+                break;
+            }
+            batch.add(frames.pollFirst());
+            bytes += length;
+            count++;
+        }
+
+        if (count > 0) {
+            ServerMetrics.framesDequeued(count);
+            notFull.signalAll();
+        }
+        return count;
+    }
+
+
+    /**
+     * Closes the queue. Pending frames are discarded and replaced by the optional final frame, which is
+     * the last thing the consumer will see. Later offers are ignored.
+     *
+     * @param finalFrame A frame to deliver before the connection closes, or null.
+     */
+    void close(OutboundFrame finalFrame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            ServerMetrics.framesDequeued(frames.size());
+            frames.clear();
+            if (finalFrame != null) {
+                frames.addLast(finalFrame);
+                ServerMetrics.frameQueued();
+            }
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Closes the queue but lets the consumer deliver what is already queued.
+     */
+    void shutdown() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return The number of frames currently waiting.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return The deepest the queue has been since the connection opened.
+     */
+    int getHighWaterMark() {
+        lock.lock();
+        try {
+            return highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return The number of broadcasts discarded for this client.
+     */
+    long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package server;
 
-import com.fasterxml.jackson.databind.*;
 import shared.*;
 
 import java.io.IOException;
@@ -9,12 +8,10 @@ import static server.ClientHandler.*;
 import static shared.Constant.*;
 
 public class PrivateMessageHandler {
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-
-    public static void handlePrivateMessage(ClientHandler sender, String message) {
+    public static void handlePrivateMessage(ClientHandler sender, Payload message) {
         try {
             // Deserialize the private message request from the message payload
-            PrivateMessageReq privateMessageRequest = objectMapper.readValue(message, PrivateMessageReq.class);
+            PrivateMessageReq privateMessageRequest = message.read(PrivateMessageReq.class);
 
             // Extract information from the private message request
             String receiver = privateMessageRequest.getReceiver();
@@ -69,7 +66,7 @@ public class PrivateMessageHandler {
                     PrivateMessageResp privateMessageResponse = new PrivateMessageResp();
                     privateMessageResponse.setStatus("OK");
                     privateMessageResponse.setCode(0);
-                    privateMessageResponse.setMessage(objectMapper.writeValueAsString(privateMessageObj));
+                    privateMessageResponse.setMessage(Codec.writeAsString(privateMessageObj));
 
                     // Send the private message content to the receiver
                     receiverHandler.sendMessage("PRIVATE_MESSAGE", privateMessageResponse);
@@ -0,0 +1,178 @@
+package server;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A single-threaded selector event loop. Every {@link ReactorConnection} is bound to exactly one reactor,
+ * which performs all of its reads, writes and message dispatching, so a connection never needs locking.
+ * Each iteration runs only the tasks that were queued before it started; a task queued by a task, such as a
+ * connection resuming its paused reads, waits for the next iteration so the ready keys get their turn first.
+ */
+class Reactor implements Runnable {
+    private static final ThreadLocal<Reactor> current = new ThreadLocal<>();
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<>();
+    private final Thread thread;
+
+
+    Reactor(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+
+    void start() {
+        thread.start();
+    }
+
+
+    /**
+     * Hands a freshly accepted channel over to this reactor.
+     *
+     * @param channel The accepted client channel.
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            ReactorConnection connection = new ReactorConnection(channel, this);
+            try {
+                channel.configureBlocking(false);
+                connection.open(channel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                ClientHandler.LOGGER.severe("Error while registering a connection: " + e.getMessage());
+                connection.close();
+            }
+        });
+    }
+
+
+    /**
+     * Runs the task on the event loop thread during its next iteration.
+     *
+     * @param task The task to run.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+
+    /**
+     * Runs the task on the event loop thread once the delay has passed.
+     *
+     * @param task       The task to run.
+     * @param delayNanos The delay in nanoseconds.
+     */
+    void schedule(Runnable task, long delayNanos) {
+        long deadline = System.nanoTime() + delayNanos;
+        execute(() -> scheduledTasks.add(new ScheduledTask(deadline, task)));
+    }
+
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+
+    /**
+     * @return True if the calling thread is any reactor's event loop, which must never block.
+     */
+    static boolean isEventLoopThread() {
+        return current.get() != null;
+    }
+
+
+    @Override
+    public void run() {
+        current.set(this);
+
+        while (true) {
+            try {
+                selectUntilNextDeadline();
+                runScheduledTasks();
+                runTasks();
+                processSelectedKeys();
+            } catch (IOException e) {
+                ClientHandler.LOGGER.severe("Error in the event loop: " + e.getMessage());
+            }
+        }
+    }
+
+
+    private void selectUntilNextDeadline() throws IOException {
+        ScheduledTask next = scheduledTasks.peek();
+
+        if (!tasks.isEmpty()) {
+            selector.selectNow();
+            return;
+        }
+        if (next == null) {
+            selector.select();
+            return;
+        }
+
+        long timeoutMillis = TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime());
+        if (timeoutMillis > 0) {
+            selector.select(timeoutMillis);
+        } else {
+            selector.selectNow();
+        }
+    }
+
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+
+        while (!scheduledTasks.isEmpty() && scheduledTasks.peek().deadline - now <= 0) {
+            tasks.add(scheduledTasks.poll().task);
+        }
+    }
+
+
+    private void runTasks() {
+        for (int count = tasks.size(); count > 0; count--) {
+            Runnable task = tasks.poll();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                ClientHandler.LOGGER.severe("Error while running an event loop task: " + e.getMessage());
+            }
+        }
+    }
+
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            ReactorConnection connection = (ReactorConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.handleRead();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.handleWrite();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Socket status " + e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+
+    private record ScheduledTask(long deadline, Runnable task) implements Comparable<ScheduledTask> {
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
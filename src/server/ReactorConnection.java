@@ -0,0 +1,248 @@
+package server;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import shared.*;
+
+import static shared.Constant.*;
+
+/**
+ * Non-blocking connection owned by a {@link Reactor}. Frames may be sent from any thread; they are put on a
+ * bounded {@link OutboundQueue} and flushed by the event loop, which also frames the incoming bytes and
+ * dispatches them to the handler. Everything queued by the time a flush runs goes out in one gathering write.
+ * Each read event is limited to a budget of bytes and frames, so a flooding client cannot starve the other
+ * connections of the same event loop; while frames are left over, reading from the socket is paused.
+ */
+class ReactorConnection implements ClientConnection {
+    private final SocketChannel channel;
+    private final Reactor reactor;
+    private final ClientHandler handler;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final OutboundQueue queue = new OutboundQueue();
+    private final List<OutboundFrame> drained = new ArrayList<>(WRITE_BATCH_MAX_FRAMES);
+    private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH_MAX_FRAMES];
+    private int batchStart;
+    private int batchEnd;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private SelectionKey key;
+    private boolean readPaused;
+    private boolean writePending;
+
+
+    ReactorConnection(SocketChannel channel, Reactor reactor) {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.handler = new ClientHandler(this);
+    }
+
+
+    /**
+     * Called on the event loop once the channel is registered with the selector.
+     */
+    void open(SelectionKey key) {
+        this.key = key;
+        ServerSetUp.addConnection(handler);
+        handler.onOpen();
+    }
+
+
+    /**
+     * Reads whatever is available and dispatches every complete frame to the handler.
+     */
+    void handleRead() throws IOException {
+        if (decoder.readFrom(channel, READ_BUDGET_BYTES) < 0) {
+            close();
+            return;
+        }
+
+        decodeFrames();
+    }
+
+
+    /**
+     * Dispatches up to a budget of buffered frames. If the budget runs out, reading is paused and the rest is
+     * picked up in a later event loop iteration, after the other ready connections have had their turn.
+     */
+    private void decodeFrames() {
+        try {
+            if (decoder.decode(handler::onFrame, READ_BUDGET_FRAMES) < READ_BUDGET_FRAMES) {
+                setReadPaused(false);
+            } else {
+                setReadPaused(true);
+                reactor.execute(this::resumeRead);
+            }
+
+        } catch (FrameTooLongException e) {
+            handler.onFrameTooLong();
+        } catch (IOException e) {
+            System.err.println("Socket status " + e.getMessage());
+            close();
+        }
+    }
+
+
+    private void resumeRead() {
+        if (key != null && key.isValid()) {
+            decodeFrames();
+        }
+    }
+
+
+    /**
+     * Writes as much of the outbound queue as the socket accepts, and waits for OP_WRITE if it is full.
+     */
+    void handleWrite() throws IOException {
+        while (true) {
+            if (batchStart == batchEnd && !nextBatch()) {
+                break;
+            }
+
+            channel.write(batch, batchStart, batchEnd - batchStart);
+            while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                batch[batchStart++] = null;
+            }
+
+            if (batchStart < batchEnd) {
+                writePending = true;
+                updateInterestOps();
+                return;
+            }
+        }
+
+        writePending = false;
+        updateInterestOps();
+    }
+
+
+    private void setReadPaused(boolean paused) {
+        if (readPaused != paused) {
+            readPaused = paused;
+            updateInterestOps();
+        }
+    }
+
+
+    private void updateInterestOps() {
+        if (key.isValid()) {
+            key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (writePending ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+
+    /**
+     * Moves the next batch of queued frames into the gathering write buffers.
+     *
+     * @return False if nothing is queued.
+     */
+    private boolean nextBatch() {
+        drained.clear();
+        batchStart = 0;
+        batchEnd = 0;
+
+        if (queue.drainTo(drained, batch.length, WRITE_BATCH_MAX_BYTES) == 0) {
+            return false;
+        }
+
+        for (OutboundFrame frame : drained) {
+            batch[batchEnd++] = frame.buffer();
+        }
+        ServerMetrics.flushed(batchEnd);
+        return true;
+    }
+
+
+    @Override
+    public void send(OutboundFrame frame) {
+        if (closed.get()) {
+            return;
+        }
+
+        if (!queue.offer(frame, !Reactor.isEventLoopThread())) {
+            disconnectSlowConsumer();
+            return;
+        }
+
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (WRITE_BATCH_LINGER_MICROS > 0) {
+                reactor.schedule(this::flush, TimeUnit.MICROSECONDS.toNanos(WRITE_BATCH_LINGER_MICROS));
+            } else {
+                reactor.execute(this::flush);
+            }
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return queue;
+    }
+
+
+    /**
+     * Replaces whatever is still queued with a DSCN and closes the connection after one last write attempt.
+     */
+    private void disconnectSlowConsumer() {
+        System.out.println("Disconnecting a client that cannot keep up: " + channel.socket().getRemoteSocketAddress());
+        ServerMetrics.slowConsumerDisconnected();
+        queue.close(OutboundQueue.slowConsumerFrame());
+        close();
+    }
+
+
+    private void flush() {
+        flushScheduled.set(false);
+
+        if (key == null || !key.isValid()) {
+            return;
+        }
+
+        try {
+            handleWrite();
+        } catch (IOException e) {
+            System.err.println("Socket status " + e.getMessage());
+            close();
+        }
+    }
+
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (reactor.inEventLoop()) {
+            closeNow();
+        } else {
+            reactor.execute(this::closeNow);
+        }
+    }
+
+
+    private void closeNow() {
+        queue.shutdown();
+
+        // Give the last queued frames (e.g. BYE_RESP) a final chance to leave before the socket goes away
+        if (key != null && key.isValid()) {
+            try {
+                handleWrite();
+            } catch (IOException ignored) {
+                // The socket is being closed anyway
+            }
+            key.cancel();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ClientHandler.LOGGER.severe("Failed to close the connection");
+        }
+
+        handler.onClose();
+    }
+}
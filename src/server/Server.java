@@ -3,6 +3,17 @@ package server;
 public class Server {
 
     public static void main(String[] args) {
+        // The mode picks the connection executor once, when the server classes are loaded
+        if (args.length > 0) {
+            System.setProperty(ServerMode.PROPERTY, args[0]);
+        }
+        // Check it here, a bad mode would otherwise only fail while loading those classes
+        try {
+            ServerMode.configured();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
         ServerSetUp server = new ServerSetUp();
         server.startServer();
     }
@@ -0,0 +1,212 @@
+package server;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Server-wide counters, updated lock-free from every connection.
+ */
+public class ServerMetrics {
+    private static final AtomicLong queuedFrames = new AtomicLong();
+    private static final AtomicLong maxQueuedFrames = new AtomicLong();
+    private static final LongAdder droppedFrames = new LongAdder();
+    private static final LongAdder slowConsumerDisconnects = new LongAdder();
+    private static final LongAdder flushes = new LongAdder();
+    private static final LongAdder flushedFrames = new LongAdder();
+    private static final AtomicLong activeTransfers = new AtomicLong();
+    private static final LongAdder completedTransfers = new LongAdder();
+    private static final LongAdder relayedBytes = new LongAdder();
+    private static final AtomicLong shapedFlows = new AtomicLong();
+    private static final AtomicLong transferBytesPerSecond = new AtomicLong();
+    private static final LongAdder throttledNanos = new LongAdder();
+    private static final LongAdder stalledTransfers = new LongAdder();
+    private static long snapshotFlushes;
+    private static long snapshotFlushedFrames;
+
+    private ServerMetrics() {
+    }
+
+
+    static void frameQueued() {
+        long depth = queuedFrames.incrementAndGet();
+        maxQueuedFrames.accumulateAndGet(depth, Math::max);
+    }
+
+    static void frameDequeued() {
+        queuedFrames.decrementAndGet();
+    }
+
+    static void framesDequeued(int count) {
+        queuedFrames.addAndGet(-count);
+    }
+
+    static void frameDropped() {
+        droppedFrames.increment();
+    }
+
+    static void slowConsumerDisconnected() {
+        slowConsumerDisconnects.increment();
+    }
+
+    static void flushed(int frames) {
+        flushes.increment();
+        flushedFrames.add(frames);
+    }
+
+    static void transferStarted() {
+        activeTransfers.incrementAndGet();
+    }
+
+    static void transferFinished(long bytes) {
+        activeTransfers.decrementAndGet();
+        completedTransfers.increment();
+        relayedBytes.add(bytes);
+    }
+
+    static void flowOpened() {
+        shapedFlows.incrementAndGet();
+    }
+
+    static void flowClosed() {
+        shapedFlows.decrementAndGet();
+    }
+
+    static void transferThrottled(long nanos) {
+        throttledNanos.add(nanos);
+    }
+
+    static void transferRateSampled(long bytesPerSecond) {
+        transferBytesPerSecond.set(bytesPerSecond);
+    }
+
+    static void transferStalled() {
+        stalledTransfers.increment();
+    }
+
+
+    /**
+     * @return The number of frames waiting in all outbound queues together.
+     */
+    public static long getQueuedFrames() {
+        return queuedFrames.get();
+    }
+
+    /**
+     * @return The highest total outbound queue depth seen since startup.
+     */
+    public static long getMaxQueuedFrames() {
+        return maxQueuedFrames.get();
+    }
+
+    /**
+     * @return The number of broadcasts discarded because their recipient was too slow.
+     */
+    public static long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /**
+     * @return The number of clients disconnected because they could not keep up.
+     */
+    public static long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+
+    /**
+     * @return The number of coalesced socket flushes performed by all connections.
+     */
+    public static long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * @return The average number of frames written per socket flush.
+     */
+    public static double getFramesPerFlush() {
+        long count = flushes.sum();
+        return count == 0 ? 0 : (double) flushedFrames.sum() / count;
+    }
+
+    /**
+     * @return The number of file transfers being relayed right now.
+     */
+    public static long getActiveTransfers() {
+        return activeTransfers.get();
+    }
+
+    /**
+     * @return The number of file transfers relayed since startup, successful or not.
+     */
+    public static long getCompletedTransfers() {
+        return completedTransfers.sum();
+    }
+
+    /**
+     * @return The number of file bytes relayed by finished transfers since startup.
+     */
+    public static long getRelayedBytes() {
+        return relayedBytes.sum();
+    }
+
+    /**
+     * @return The number of relayed and spooled streams whose bandwidth is being shaped right now.
+     */
+    public static long getShapedFlows() {
+        return shapedFlows.get();
+    }
+
+    /**
+     * @return The combined rate of all file transfers in the last sample, in bytes per second.
+     */
+    public static long getTransferBytesPerSecond() {
+        return transferBytesPerSecond.get();
+    }
+
+    /**
+     * @return The total time file transfers were held back to stay within their rate, in milliseconds.
+     */
+    public static long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    /**
+     * @return The number of file transfers aborted because they stopped moving.
+     */
+    public static long getStalledTransfers() {
+        return stalledTransfers.sum();
+    }
+
+    /**
+     * Describes the counters in one line, with the frames per flush both since startup and since the previous
+     * snapshot, followed by the outbound queue of the logged-in user that has fallen the furthest behind.
+     */
+    public static synchronized String snapshot() {
+        long flushCount = flushes.sum();
+        long flushedFrameCount = flushedFrames.sum();
+        long recentFlushes = flushCount - snapshotFlushes;
+        double recentFramesPerFlush = recentFlushes == 0 ? 0 : (double) (flushedFrameCount - snapshotFlushedFrames) / recentFlushes;
+        snapshotFlushes = flushCount;
+        snapshotFlushedFrames = flushedFrameCount;
+
+        ClientHandler slowest = null;
+        int slowestHighWaterMark = -1;
+        for (ClientHandler user : ServerSetUp.getUsers()) {
+            int highWaterMark = user.getOutboundQueue().getHighWaterMark();
+            if (highWaterMark > slowestHighWaterMark) {
+                slowest = user;
+                slowestHighWaterMark = highWaterMark;
+            }
+        }
+
+        return "queued=" + getQueuedFrames() + " maxQueued=" + getMaxQueuedFrames() +
+                " dropped=" + getDroppedFrames() + " slowDisconnects=" + getSlowConsumerDisconnects() +
+                " flushes=" + getFlushes() + " framesPerFlush=" + String.format("%.2f", getFramesPerFlush()) +
+                " recentFramesPerFlush=" + String.format("%.2f", recentFramesPerFlush) +
+                " activeTransfers=" + getActiveTransfers() + " transfers=" + getCompletedTransfers() +
+                " relayedBytes=" + getRelayedBytes() + " shapedFlows=" + getShapedFlows() +
+                " transferBytesPerSecond=" + getTransferBytesPerSecond() + " throttledMs=" + getThrottledMillis() +
+                " stalledTransfers=" + getStalledTransfers() +
+                (slowest == null ? "" : " slowestUser=" + slowest.getUsername() + " highWaterMark=" +
+                        slowestHighWaterMark + " userDropped=" + slowest.getOutboundQueue().getDropped());
+    }
+}
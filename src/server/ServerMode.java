@@ -0,0 +1,37 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * The ways the main chat server can serve its client connections.
+ */
+public enum ServerMode {
+
+    /** One blocking thread per connected client. */
+    THREAD,
+
+    /** A small pool of non-blocking selector event loops shared by all clients. */
+    NIO,
+
+    /** One blocking task per connected client, each running on a virtual thread. */
+    VIRTUAL;
+
+    /** The system property that selects the mode, THREAD if it is not set. */
+    public static final String PROPERTY = "chat.server.mode";
+
+    /**
+     * @return The mode selected by the {@value #PROPERTY} system property.
+     * @throws IllegalArgumentException If the property does not name a mode, with a message listing the modes.
+     */
+    static ServerMode configured() {
+        String name = System.getProperty(PROPERTY, THREAD.name());
+        for (ServerMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown server mode '" + name + "', expected one of "
+                + Arrays.toString(values()));
+    }
+
+}
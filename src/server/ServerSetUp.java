@@ -1,25 +1,45 @@
 package server;
 
 import java.io.*;
+import java.lang.reflect.*;
 import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static shared.Constant.*;
 
 public class ServerSetUp {
-    private static final Set<ClientHandler> users = new HashSet<>();
-    private static final Set<ClientHandler> usersFileTransfer = new HashSet<>();
+    private static final Map<String, ClientHandler> users = new ConcurrentHashMap<>();
+    private static final Set<ClientHandler> unauthenticatedUsers = ConcurrentHashMap.newKeySet();
+    private static final ServerMode mode = ServerMode.configured();
+    private static final ExecutorService connectionExecutor = mode == ServerMode.VIRTUAL
+            ? newVirtualThreadExecutor() : Executors.newCachedThreadPool();
+    private static final TransferScheduler transferScheduler = new TransferScheduler(FILE_TRANSFER_MAX_BYTES_PER_SECOND,
+            FILE_TRANSFER_USER_BYTES_PER_SECOND);
+    private static final TransferMonitor transferMonitor = new TransferMonitor();
+    private static final GameManager gameManager = new GameManager();
+    private static final FileTransferSpool fileTransferSpool = new FileTransferSpool(Path.of(FILE_TRANSFER_SPOOL_DIR),
+            transferScheduler, transferMonitor);
+    private final FileTransferRendezvous fileTransferRendezvous = new FileTransferRendezvous(fileTransferSpool,
+            transferScheduler, transferMonitor);
 
 
-    public ServerSetUp() {
-    }
-
     public void startServer() {
         startMainServer();
         startFileTransferServer();
+        if (METRICS_LOG_INTERVAL_MS > 0) {
+            TimerWheel.shared().schedule(this::logMetrics, METRICS_LOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
     private void startMainServer() {
+        if (mode == ServerMode.NIO) {
+            startEventLoopServer();
+            return;
+        }
+
         Thread mainServerThread = new Thread(() -> {
             try {
                 ServerSocket serverSocket = new ServerSocket(SERVER_PORT, MAX_PENDING, InetAddress.getByName(SERVER_ADDRESS));
@@ -28,8 +48,39 @@ public class ServerSetUp {
                 while (true) {
                     Socket clientSocket = serverSocket.accept();
                     ClientHandler clientHandler = new ClientHandler(clientSocket);
-                    clientHandler.start();
-                    addUsers(clientHandler);
+                    addConnection(clientHandler);
+                    connectionExecutor.execute(clientHandler);
+                }
+            } catch (IOException e) {
+                handleServerStartupError("main", e);
+            }
+        });
+        mainServerThread.start();
+    }
+
+    /**
+     * Starts the non-blocking variant of the main server: one acceptor thread hands new channels
+     * round-robin to one selector event loop per available core.
+     */
+    private void startEventLoopServer() {
+        Thread mainServerThread = new Thread(() -> {
+            try {
+                Reactor[] reactors = new Reactor[Runtime.getRuntime().availableProcessors()];
+                for (int i = 0; i < reactors.length; i++) {
+                    reactors[i] = new Reactor("reactor-" + i);
+                    reactors[i].start();
+                }
+
+                ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                serverChannel.bind(new InetSocketAddress(InetAddress.getByName(SERVER_ADDRESS), SERVER_PORT), MAX_PENDING);
+                System.out.println("Starting server version " + VERSION + " is running on port " + SERVER_PORT +
+                        " with " + reactors.length + " event loops");
+
+                int next = 0;
+                while (true) {
+                    SocketChannel clientChannel = serverChannel.accept();
+                    reactors[next].register(clientChannel);
+                    next = (next + 1) % reactors.length;
                 }
             } catch (IOException e) {
                 handleServerStartupError("main", e);
@@ -41,61 +92,14 @@ public class ServerSetUp {
     private void startFileTransferServer() {
         Thread fileTransferThread = new Thread(() -> {
             try {
-                ServerSocket fileTransferSocket = new ServerSocket(FILE_TRANSFER_PORT, MAX_PENDING, InetAddress.getByName(SERVER_ADDRESS));
+                ServerSocketChannel fileTransferChannel = ServerSocketChannel.open();
+                fileTransferChannel.bind(new InetSocketAddress(SERVER_ADDRESS, FILE_TRANSFER_PORT), MAX_PENDING);
                 System.out.println("File transfer server is running on port " + FILE_TRANSFER_PORT);
 
-                Socket senderSocket = null;
-                Socket receiverSocket = null;
-
                 while (true) {
-
-                    Socket fileTransferClientSocket = fileTransferSocket.accept();
-                    System.out.println("hello");
-
-
-                    // Determine if it's the sender or the receiver based on the first byte
-                    InputStream inputStream = fileTransferClientSocket.getInputStream();
-                    DataInputStream dataInputStream = new DataInputStream(inputStream);
-                    byte[] buffer = new byte[1];
-                    dataInputStream.readFully(buffer, 0, 1);
-                    char firstByte = (char) buffer[0];
-                    System.out.println(firstByte);
-
-                    if (firstByte == 'S') {
-                        // The connecting client is the sender
-                        if (senderSocket == null) {
-                            senderSocket = fileTransferClientSocket;
-                            System.out.println("Sender connected");
-
-                        } else {
-                            // If a sender is already connected, reject this connection or handle appropriately
-                            System.out.println("Another sender attempted to connect. Rejecting connection.");
-                            fileTransferClientSocket.close();
-                        }
-                    } else if (firstByte == 'R') {
-                        // The connecting client is the receiver
-                        if (receiverSocket == null) {
-                            receiverSocket = fileTransferClientSocket;
-                            System.out.println("Receiver connected");
-                            System.out.println(receiverSocket);
-                        } else {
-                            // If a receiver is already connected, reject this connection or handle appropriately
-                            System.out.println("Another receiver attempted to connect. Rejecting connection.");
-                            fileTransferClientSocket.close();
-                        }
-                    } else {
-                        // Invalid first byte, handle appropriately
-                        System.err.println("Invalid first byte received: " + firstByte);
-                        fileTransferClientSocket.close();
-                    }
-
-                    // Once both sender and receiver are connected, start data transfer
-                    if (senderSocket != null && receiverSocket != null) {
-                        handleDataTransfer(senderSocket, receiverSocket);
-                        // Reset sender and receiver sockets for next transfer
-                        senderSocket = null;
-                        receiverSocket = null;
-                    }
+                    // The handshake is read on a worker, so a slow client cannot hold up the acceptor
+                    SocketChannel fileTransferClientChannel = fileTransferChannel.accept();
+                    connectionExecutor.execute(() -> fileTransferRendezvous.arrive(fileTransferClientChannel));
                 }
             } catch (IOException e) {
                 handleServerStartupError("file.txt transfer", e);
@@ -104,78 +108,137 @@ public class ServerSetUp {
         fileTransferThread.start();
     }
 
+    /**
+     * Creates an executor that starts a virtual thread per task. The factory is looked up reflectively so
+     * the server still runs on JVMs without virtual threads, where it falls back to platform threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads are not available on this JVM, using platform threads instead");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Prints the server metrics, the transfers being relayed and the transfer rate of every user, and schedules
+     * the next time they are printed.
+     */
+    private void logMetrics() {
+        try {
+            System.out.println("Metrics: " + ServerMetrics.snapshot());
+            Map<String, Long> userRates = transferScheduler.getUserRates();
+            if (!userRates.isEmpty()) {
+                System.out.println("Metrics: transfer bytes per second by user " + userRates);
+            }
+            fileTransferRendezvous.getActiveTransfers().forEach((transferId, counter) ->
+                    System.out.println("Metrics: transfer " + transferId + " relayed " + counter));
+        } finally {
+            TimerWheel.shared().schedule(this::logMetrics, METRICS_LOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
     private void handleServerStartupError(String serverType, IOException e) {
         System.err.println("Error occurred while starting the " + serverType + " server: " + e.getMessage());
         e.printStackTrace(System.err);
     }
 
 
-    public static Set<ClientHandler> getUsers() {
-        return users;
+    /**
+     * Gets the executor that runs the blocking client handler and heartbeat tasks.
+     *
+     * @return The connection executor.
+     */
+    public static Executor getConnectionExecutor() {
+        return connectionExecutor;
     }
 
-    public static synchronized void addUsers(ClientHandler user) {
-        users.add(user);
+    /**
+     * Gets the spool that stores files until their receiver downloads them.
+     *
+     * @return The file transfer spool.
+     */
+    static FileTransferSpool getFileTransferSpool() {
+        return fileTransferSpool;
     }
 
-    public static void removeUser(ClientHandler user) {
-        users.remove(user);
+    /**
+     * Gets the monitor that reports the progress of the file transfers.
+     *
+     * @return The transfer monitor.
+     */
+    static TransferMonitor getTransferMonitor() {
+        return transferMonitor;
     }
 
-    public static boolean containsUser(String username) {
-
-        for (ClientHandler clientHandler : users) {
-            if (clientHandler != null && clientHandler.getUsername() != null && clientHandler.getUsername().equals(username)) {
-                return true;
-            }
-        }
-        return false;
+    /**
+     * Gets the manager that hosts the guessing games.
+     *
+     * @return The game manager.
+     */
+    static GameManager getGameManager() {
+        return gameManager;
     }
 
-    public static ClientHandler getUserByUsername(String username) {
-        for (ClientHandler clientHandler : users) {
-            if (clientHandler != null && clientHandler.getUsername() != null && clientHandler.getUsername().equals(username)) {
-                return clientHandler;
-            }
-        }
-        return null;
+    /**
+     * Gets the handlers of all logged-in users.
+     *
+     * @return A live, thread-safe view of the logged-in users.
+     */
+    public static Collection<ClientHandler> getUsers() {
+        return users.values();
     }
 
-    private void handleDataTransfer(Socket senderSocket, Socket receiverSocket) {
-        try {
-            // Reading from the sender
-            InputStream senderInputStream = senderSocket.getInputStream();
-            DataInputStream senderDataInputStream = new DataInputStream(senderInputStream);
-
-            // Read the data from the sender
-            byte[] senderDataBytes = new byte[36];
-            senderDataInputStream.readFully(senderDataBytes);
-            String senderData = new String(senderDataBytes);
-
-            // Sending data to the receiver
-            OutputStream receiverOutputStream = receiverSocket.getOutputStream();
-            DataOutputStream receiverDataOutputStream = new DataOutputStream(receiverOutputStream);
+    /**
+     * Gets the usernames of all logged-in users.
+     *
+     * @return A live, thread-safe view of the usernames.
+     */
+    public static Set<String> getUsernames() {
+        return users.keySet();
+    }
 
+    /**
+     * Registers a connection that has not logged in yet.
+     *
+     * @param user The handler of the new connection.
+     */
+    public static void addConnection(ClientHandler user) {
+        unauthenticatedUsers.add(user);
+    }
 
-            // Write the data to the receiver
+    /**
+     * Atomically claims a username for a connection, so two clients racing for the same name cannot both win.
+     *
+     * @param username The username to claim.
+     * @param user     The handler that wants the username.
+     * @return True if the username was free and now belongs to the handler, false otherwise.
+     */
+    public static boolean claimUsername(String username, ClientHandler user) {
+        if (users.putIfAbsent(username, user) != null) {
+            return false;
+        }
 
-            // Reading and writing file content
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = senderInputStream.read(buffer)) != -1) {
-                receiverOutputStream.write(buffer, 0, bytesRead);
-            }
+        unauthenticatedUsers.remove(user);
+        return true;
+    }
 
-            receiverDataOutputStream.flush();
-            receiverDataOutputStream.close();
-            receiverOutputStream.close();
+    public static void removeUser(ClientHandler user) {
+        unauthenticatedUsers.remove(user);
 
-            System.out.println("Data transferred from sender to receiver: " + senderData);
-        } catch (IOException e) {
-            // Handle any IO exceptions
-            e.printStackTrace();
+        String username = user.getUsername();
+        if (username != null) {
+            users.remove(username, user);
         }
+    }
 
+    public static boolean containsUser(String username) {
+        return username != null && users.containsKey(username);
     }
-}
 
+    public static ClientHandler getUserByUsername(String username) {
+        return username != null ? users.get(username) : null;
+    }
+}
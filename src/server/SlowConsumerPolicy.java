@@ -0,0 +1,27 @@
+package server;
+
+import static shared.Constant.*;
+
+/**
+ * What a connection does when its outbound queue is full because the client reads slower than it is sent to.
+ */
+public enum SlowConsumerPolicy {
+
+        /** Make room by discarding the oldest queued broadcast; disconnect if nothing can be discarded. */
+        DROP_OLDEST_BROADCAST,
+
+        /** Send DSCN to the client and close the connection. */
+        DISCONNECT,
+
+        /** Make the sending thread wait for room, up to {@code OUTBOUND_BLOCK_TIMEOUT_MS}, then disconnect. */
+        BLOCK;
+
+
+        /**
+         * @return The policy configured through {@code SLOW_CONSUMER_POLICY}.
+         */
+        static SlowConsumerPolicy configured() {
+                return valueOf(SLOW_CONSUMER_POLICY.toUpperCase());
+        }
+
+}
@@ -0,0 +1,99 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static shared.Constant.*;
+
+/**
+ * Blocking connection backed by a plain socket, used when every client has its own (platform or virtual) thread.
+ * Frames are put on a bounded {@link OutboundQueue} and written by a dedicated writer task, so a slow client
+ * never stalls the thread that sends to it. The writer takes whatever has queued up and sends it with a single
+ * flush, so bursts such as the game start sequence cost one syscall instead of one per frame.
+ */
+class SocketConnection implements ClientConnection {
+    private final Socket socket;
+    private final OutputStream outputStream;
+    private final OutboundQueue queue = new OutboundQueue();
+    private volatile boolean writing;
+
+    SocketConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream(), WRITE_BATCH_MAX_BYTES);
+        ServerSetUp.getConnectionExecutor().execute(this::writeFrames);
+    }
+
+    @Override
+    public void send(OutboundFrame frame) {
+        if (!queue.offer(frame, true)) {
+            disconnectSlowConsumer();
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return queue;
+    }
+
+
+    /**
+     * Writer task: drains the queue in batches until it is closed, then closes the socket.
+     */
+    private void writeFrames() {
+        List<OutboundFrame> batch = new ArrayList<>(WRITE_BATCH_MAX_FRAMES);
+        long lingerNanos = TimeUnit.MICROSECONDS.toNanos(WRITE_BATCH_LINGER_MICROS);
+
+        try {
+            while (queue.takeBatch(batch, WRITE_BATCH_MAX_FRAMES, WRITE_BATCH_MAX_BYTES, lingerNanos) > 0) {
+                writing = true;
+                for (OutboundFrame frame : batch) {
+                    frame.writeTo(outputStream);
+                }
+                outputStream.flush();
+                writing = false;
+
+                ServerMetrics.flushed(batch.size());
+                batch.clear();
+            }
+        } catch (IOException e) {
+            // The reader notices the broken socket and cleans up the handler
+            System.err.println("Socket status " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeSocket();
+    }
+
+
+    private void disconnectSlowConsumer() {
+        System.out.println("Disconnecting a client that cannot keep up: " + socket.getRemoteSocketAddress());
+        ServerMetrics.slowConsumerDisconnected();
+        queue.close(OutboundQueue.slowConsumerFrame());
+
+        if (writing) {
+            // The writer is stuck on a client that stopped reading, so the DSCN could never arrive
+            closeSocket();
+        }
+    }
+
+
+    /**
+     * Lets the writer deliver what is already queued (such as BYE_RESP) and then close the socket.
+     */
+    @Override
+    public void close() {
+        queue.shutdown();
+    }
+
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            ClientHandler.LOGGER.severe("Failed to close the connection");
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import static shared.Constant.*;
+
+/**
+ * Hashed timing wheel shared by the whole server, replacing a {@link java.util.Timer} (and so a thread) per use.
+ * Timeouts are hashed into a ring of buckets by deadline; a single ticker thread advances one bucket per tick
+ * and hands the expired tasks to the connection executor, so a slow task never delays the other timers.
+ * Scheduling and cancelling are O(1) and never block, which makes them safe from event loop threads.
+ * Deadlines are rounded up to the next tick, so the tick is kept short enough that the heartbeat is never
+ * noticeably late.
+ */
+final class TimerWheel {
+    private static final TimerWheel INSTANCE = new TimerWheel(TIMER_TICK_MS, TIMER_WHEEL_SIZE);
+
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final long startTime = System.nanoTime();
+    private long tick;
+
+
+    private TimerWheel(long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+
+        int size = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+
+        Thread ticker = new Thread(this::run, "timer-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+
+    static TimerWheel shared() {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Runs the task once the delay has passed, unless the returned timeout is cancelled first.
+     *
+     * @param task  The task to run.
+     * @param delay The delay.
+     * @param unit  The unit of the delay.
+     * @return A handle that cancels the task.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + unit.toNanos(delay));
+        pending.add(timeout);
+        return timeout;
+    }
+
+
+    private void run() {
+        while (true) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(sleepNanos);
+                continue;
+            }
+
+            removeCancelled();
+            transferPending();
+            buckets[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+
+            long expiryTick = (timeout.deadline + tickNanos - 1) / tickNanos - 1;
+            timeout.remainingRounds = (expiryTick - tick) / buckets.length;
+
+            // Anything already due goes into the current bucket, which is expired right away
+            buckets[(int) (Math.max(expiryTick, tick) & mask)].add(timeout);
+        }
+    }
+
+
+    /**
+     * A scheduled task that can be cancelled.
+     */
+    static final class Timeout {
+        private static final int INIT = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(INIT);
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+
+        /**
+         * Cancels the task if it has not run yet.
+         *
+         * @return False if the task already ran or was cancelled before.
+         */
+        boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) {
+                return false;
+            }
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+
+        private void expire() {
+            if (state.compareAndSet(INIT, EXPIRED)) {
+                try {
+                    ServerSetUp.getConnectionExecutor().execute(task);
+                } catch (RejectedExecutionException e) {
+                    ClientHandler.LOGGER.severe("Timer task rejected: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Doubly linked list of the timeouts hashed to one slot, only touched by the ticker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+
+        void expire() {
+            Timeout timeout = head;
+
+            while (timeout != null) {
+                Timeout next = timeout.next;
+
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+
+                timeout = next;
+            }
+        }
+
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.bucket = null;
+        }
+    }
+}
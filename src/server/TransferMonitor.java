@@ -0,0 +1,362 @@
+package server;
+
+import shared.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static shared.Constant.*;
+
+/**
+ * Follows every file transfer going through the server, relayed or spooled, and tells both parties how it is
+ * going with {@code FILE_TRANSFER_PROGRESS} frames on their chat connections. The frames are coalesced: a
+ * transfer is looked at once per progress interval, however many chunks went by in between, and a frame is
+ * only sent if it moved. Progress is counted in file bytes, read from the chunk headers as the stream goes by,
+ * so compression does not skew the rate or the ETA. A transfer that has not moved a single byte for the stall
+ * timeout is aborted, which closes its connections so their workers and sockets are freed.
+ * <p>
+ * The parallel streams of a transfer do not all start and end together, so its outcome is only reported once
+ * as many streams as the receiver accepted have ended, or once the rest had a rendezvous timeout to show up.
+ * <p>
+ * The parties of a relay transfer are taken from the offer the server routed, never from what a client claims
+ * in its response, so a receiver cannot charge someone else's bandwidth or send a response in their name.
+ */
+class TransferMonitor {
+    private static final double RATE_SMOOTHING = 0.5;
+
+    private final Map<UUID, Transfer> transfers = new ConcurrentHashMap<>();
+    private final Map<UUID, Offer> offers = new ConcurrentHashMap<>();
+
+
+    TransferMonitor() {
+        TimerWheel.shared().schedule(this::tick, FILE_TRANSFER_PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Records a relay transfer the server routed to its receiver. The offer is kept while the transfer runs, and
+     * for the offer timeout after it was last used, so the receiver can still answer it or resume the transfer.
+     *
+     * @param transferId The transfer UUID.
+     * @param sender     The user who sent the request.
+     * @param receiver   The user it was routed to.
+     * @return False if another user already offered a transfer with this id.
+     */
+    boolean offer(UUID transferId, String sender, String receiver) {
+        Offer offer = new Offer(sender, receiver);
+        return offers.compute(transferId, (id, existing) ->
+                existing == null || existing.sender.equals(sender) ? offer : existing) == offer;
+    }
+
+
+    /**
+     * @return The user who offered the transfer to the receiver, or null if it was not offered to them.
+     */
+    String offeredBy(UUID transferId, String receiver) {
+        Offer offer = offers.get(transferId);
+        if (offer == null || !offer.receiver.equals(receiver)) {
+            return null;
+        }
+        offer.lastUsedAt = System.nanoTime();
+        return offer.sender;
+    }
+
+
+    /**
+     * Forgets an offer the receiver declined.
+     */
+    void withdraw(UUID transferId) {
+        offers.remove(transferId);
+    }
+
+
+    /**
+     * Records the parties of a relay transfer the receiver just accepted, so its streams can be reported to
+     * them. The record is dropped if no stream shows up in time.
+     *
+     * @param transferId The transfer UUID.
+     * @param sender     The user sending the file.
+     * @param receiver   The user receiving it.
+     * @param offset     The number of bytes the receiver already has.
+     * @param streams    The number of parallel streams the receiver accepted.
+     */
+    void expect(UUID transferId, String sender, String receiver, long offset, int streams) {
+        transfers.compute(transferId, (id, transfer) -> transfer != null && transfer.isRunning()
+                ? transfer : new Transfer(id, sender, receiver, offset, Math.max(1, streams)));
+    }
+
+
+    /**
+     * @return The user sending a transfer, or null if no receiver accepted it.
+     */
+    String senderOf(UUID transferId) {
+        Transfer transfer = transfers.get(transferId);
+        return transfer != null ? transfer.sender : null;
+    }
+
+
+    /**
+     * Starts following one stream of a transfer; it must be {@link Stream#close closed} when it ends.
+     *
+     * @param transferId The transfer the stream belongs to, shared by its parallel streams.
+     * @param sender     The user to report to as the sender, if the transfer was not expected.
+     * @param receiver   The user to report to as the receiver, if the transfer was not expected.
+     * @param channels   The connections of the stream, closed if it stalls.
+     */
+    Stream open(UUID transferId, String sender, String receiver, SocketChannel... channels) {
+        while (true) {
+            Transfer transfer = transfers.computeIfAbsent(transferId, id -> new Transfer(id, sender, receiver, 0, 1));
+            Stream stream = transfer.add(channels);
+            if (stream != null) {
+                return stream;
+            }
+            // It just ended, so this stream starts a transfer of its own, still reported to the same parties
+            transfers.replace(transferId, transfer, new Transfer(transferId, sender != null ? sender : transfer.sender,
+                    receiver != null ? receiver : transfer.receiver, 0, 1));
+        }
+    }
+
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            for (Transfer transfer : transfers.values()) {
+                if (transfer.tick(now)) {
+                    transfers.remove(transfer.id, transfer);
+                }
+            }
+            long timeout = TimeUnit.MILLISECONDS.toNanos(FILE_TRANSFER_OFFER_TIMEOUT_MS);
+            for (Map.Entry<UUID, Offer> entry : offers.entrySet()) {
+                Offer offer = entry.getValue();
+                if (transfers.containsKey(entry.getKey())) {
+                    offer.lastUsedAt = now;
+                } else if (now - offer.lastUsedAt > timeout) {
+                    offers.remove(entry.getKey(), offer);
+                }
+            }
+        } finally {
+            TimerWheel.shared().schedule(this::tick, FILE_TRANSFER_PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * A relay transfer routed from its sender to its receiver.
+     */
+    private static final class Offer {
+        private final String sender;
+        private final String receiver;
+        private volatile long lastUsedAt = System.nanoTime();
+
+        private Offer(String sender, String receiver) {
+            this.sender = sender;
+            this.receiver = receiver;
+        }
+    }
+
+
+    /**
+     * All streams of one transfer.
+     */
+    private static final class Transfer {
+        private final UUID id;
+        private final String sender;
+        private final String receiver;
+        private final long createdAt = System.nanoTime();
+        private final int expectedStreams;
+        private final List<Stream> streams = new ArrayList<>();
+        private int closedStreams;
+        private long lastClosedAt;
+        private long offset;
+        private long totalBytes;
+        private long closedBytes;
+        private long closedWireBytes;
+        private long lastBytes;
+        private long lastWireBytes;
+        private long lastTickAt = createdAt;
+        private long lastMovedAt = createdAt;
+        private double bytesPerSecond;
+        private boolean started;
+        private boolean stalled;
+        private boolean finished;
+
+        private Transfer(UUID id, String sender, String receiver, long offset, int expectedStreams) {
+            this.id = id;
+            this.sender = sender;
+            this.receiver = receiver;
+            this.offset = offset;
+            this.expectedStreams = expectedStreams;
+        }
+
+        private synchronized boolean isRunning() {
+            return !streams.isEmpty();
+        }
+
+        private synchronized Stream add(SocketChannel[] channels) {
+            if (finished) {
+                return null;
+            }
+            Stream stream = new Stream(this, channels);
+            streams.add(stream);
+            started = true;
+            return stream;
+        }
+
+        private synchronized void remove(Stream stream) {
+            if (streams.remove(stream)) {
+                ChunkedTransfer.Scanner scanner = stream.scanner;
+                closedBytes += scanner != null ? scanner.bytes() : 0;
+                closedWireBytes += stream.wireBytes;
+                closedStreams++;
+                lastClosedAt = System.nanoTime();
+                learn(scanner);
+            }
+        }
+
+        /**
+         * Takes the size of the file, and where the transfer really resumed, from the header of a stream.
+         */
+        private void learn(ChunkedTransfer.Scanner scanner) {
+            ChunkedTransfer.Header header = scanner != null ? scanner.header() : null;
+            if (header != null) {
+                totalBytes = header.totalSize();
+                offset = Math.min(offset, header.rangeStart());
+            }
+        }
+
+        /**
+         * Reports the progress since the last tick, or the outcome once every stream has ended.
+         *
+         * @return True if the transfer is over and can be forgotten.
+         */
+        private synchronized boolean tick(long now) {
+            if (streams.isEmpty()) {
+                boolean complete = totalBytes > 0 && offset + closedBytes >= totalBytes;
+                if (started) {
+                    // Between two parallel streams, unless they have all been seen or the others never came
+                    finished = complete || closedStreams >= expectedStreams ||
+                            now - lastClosedAt > TimeUnit.MILLISECONDS.toNanos(FILE_TRANSFER_RENDEZVOUS_TIMEOUT_MS);
+                    if (finished && !stalled) {
+                        publish(complete ? FileTransferProgress.COMPLETE : FileTransferProgress.INTERRUPTED);
+                    }
+                } else {
+                    finished = now - createdAt > TimeUnit.MILLISECONDS.toNanos(
+                            FILE_TRANSFER_HANDSHAKE_TIMEOUT_MS + FILE_TRANSFER_RENDEZVOUS_TIMEOUT_MS);
+                }
+                return finished;
+            }
+
+            long bytes = closedBytes;
+            long wireBytes = closedWireBytes;
+            for (Stream stream : streams) {
+                ChunkedTransfer.Scanner scanner = stream.scanner;
+                bytes += scanner != null ? scanner.bytes() : 0;
+                wireBytes += stream.wireBytes;
+                learn(scanner);
+            }
+
+            double rate = (bytes - lastBytes) * 1e9 / Math.max(1, now - lastTickAt);
+            bytesPerSecond = lastBytes == 0 ? rate : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * bytesPerSecond;
+            boolean moved = bytes != lastBytes;
+            lastBytes = bytes;
+            lastTickAt = now;
+            if (wireBytes != lastWireBytes) {
+                lastWireBytes = wireBytes;
+                lastMovedAt = now;
+            }
+
+            if (now - lastMovedAt > TimeUnit.MILLISECONDS.toNanos(FILE_TRANSFER_STALL_TIMEOUT_MS) && !stalled) {
+                System.err.println("File transfer " + id + " stalled after " + bytes + " bytes, aborting it");
+                stalled = true;
+                ServerMetrics.transferStalled();
+                for (Stream stream : streams) {
+                    for (SocketChannel channel : stream.channels) {
+                        FileTransferRendezvous.closeQuietly(channel);
+                    }
+                }
+                publish(FileTransferProgress.STALLED);
+            } else if (moved) {
+                publish(FileTransferProgress.ACTIVE);
+            }
+            return false;
+        }
+
+        private void publish(String status) {
+            long bytes = offset + (streams.isEmpty() ? closedBytes : lastBytes);
+            long remaining = totalBytes - bytes;
+
+            FileTransferProgress progress = new FileTransferProgress();
+            progress.setTransferId(id);
+            progress.setSender(sender);
+            progress.setReceiver(receiver);
+            progress.setBytes(bytes);
+            progress.setTotalBytes(totalBytes);
+            progress.setBytesPerSecond((long) bytesPerSecond);
+            progress.setEtaSeconds(totalBytes > 0 && bytesPerSecond >= 1 ? (long) Math.ceil(remaining / bytesPerSecond) : -1);
+            progress.setStatus(status);
+
+            OutboundFrame frame = OutboundFrame.of(FILE_TRANSFER_PROGRESS, progress);
+            for (String user : new String[]{sender, receiver}) {
+                ClientHandler handler = user != null ? ServerSetUp.getUserByUsername(user) : null;
+                if (handler != null) {
+                    handler.sendFrame(frame);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * One stream of a transfer, fed by the single worker that moves its bytes.
+     */
+    static final class Stream implements AutoCloseable {
+        private final Transfer transfer;
+        private final SocketChannel[] channels;
+        private volatile ChunkedTransfer.Scanner scanner;
+        private volatile long wireBytes;
+
+        private Stream(Transfer transfer, SocketChannel[] channels) {
+            this.transfer = transfer;
+            this.channels = channels;
+        }
+
+        /**
+         * Follows a stream from its first byte, as it is relayed.
+         */
+        void followRelay() {
+            scanner = new ChunkedTransfer.Scanner();
+        }
+
+        /**
+         * Follows a stream stored in a file, once its header is known.
+         */
+        void followStored(ChunkedTransfer.Header header, long dataOffset) {
+            scanner = new ChunkedTransfer.Scanner(header, dataOffset);
+        }
+
+        /**
+         * @param data The bytes just relayed; its position is left unchanged.
+         */
+        void relayed(ByteBuffer data) {
+            wireBytes += data.remaining();
+            scanner.scan(data);
+        }
+
+        /**
+         * @param file The stored stream.
+         * @param end  How far the file has been stored, or sent.
+         */
+        void stored(FileChannel file, long end) throws IOException {
+            wireBytes = end;
+            scanner.scan(file, end);
+        }
+
+        @Override
+        public void close() {
+            transfer.remove(this);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package server;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static shared.Constant.*;
+
+/**
+ * Shapes the bandwidth of all file transfers, so they cannot saturate the link and starve the chat
+ * connections. Every relayed or spooled stream is a {@link Flow} with a token bucket, and whenever a flow
+ * starts or ends the rates are shared out again: the global cap goes to the users by weighted max-min
+ * fairness, no user gets more than the per-user cap, and what a capped user cannot use goes to the others.
+ * A user's rate is split between their flows by weight, where a transfer's weight is spread over its
+ * parallel streams, so opening more streams does not buy a bigger share. A cap of 0 means unlimited.
+ * <p>
+ * The rates actually reached are sampled once per {@code FILE_TRANSFER_RATE_SAMPLE_MS} and published to
+ * {@link ServerMetrics}.
+ */
+class TransferScheduler {
+    private static final double BURST_SECONDS = 0.05;
+    private static final int MIN_QUANTUM_BYTES = 4 * 1024;
+
+    private final long maxBytesPerSecond;
+    private final long userBytesPerSecond;
+    private final Set<Flow> flows = new HashSet<>();
+    private volatile Map<String, Long> userRates = Map.of();
+
+
+    TransferScheduler(long maxBytesPerSecond, long userBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.userBytesPerSecond = userBytesPerSecond;
+        TimerWheel.shared().schedule(this::sample, FILE_TRANSFER_RATE_SAMPLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Starts shaping a stream; it must be {@link Flow#close closed} when it ends.
+     *
+     * @param transferId The transfer the stream belongs to, shared by its parallel streams.
+     * @param user       The user whose bandwidth the stream counts against.
+     * @param weight     The weight of the transfer.
+     */
+    Flow open(UUID transferId, String user, int weight) {
+        Flow flow = new Flow(transferId, user, weight);
+        synchronized (this) {
+            flows.add(flow);
+            rebalance();
+        }
+        ServerMetrics.flowOpened();
+        return flow;
+    }
+
+
+    /**
+     * @return The rates reached in the last sample by the users with active flows, in bytes per second.
+     */
+    Map<String, Long> getUserRates() {
+        return userRates;
+    }
+
+
+    private synchronized void close(Flow flow) {
+        if (flows.remove(flow)) {
+            rebalance();
+            ServerMetrics.flowClosed();
+        }
+    }
+
+
+    private void rebalance() {
+        Map<UUID, Integer> streams = new HashMap<>();
+        Map<String, Double> userWeights = new HashMap<>();
+        for (Flow flow : flows) {
+            streams.merge(flow.transferId, 1, Integer::sum);
+        }
+        for (Flow flow : flows) {
+            userWeights.merge(flow.user, (double) flow.weight / streams.get(flow.transferId), Double::sum);
+        }
+
+        // Users whose fair share is above the per-user cap are held to it, and the rest is shared again
+        double capacity = maxBytesPerSecond > 0 ? maxBytesPerSecond : Double.POSITIVE_INFINITY;
+        double userCap = userBytesPerSecond > 0 ? userBytesPerSecond : Double.POSITIVE_INFINITY;
+        Map<String, Double> userShares = new HashMap<>(userWeights);
+        Map<String, Double> userRates = new HashMap<>();
+        boolean capped = true;
+        while (capped && !userShares.isEmpty()) {
+            capped = false;
+            double totalWeight = userShares.values().stream().mapToDouble(Double::doubleValue).sum();
+            for (Iterator<Map.Entry<String, Double>> users = userShares.entrySet().iterator(); users.hasNext(); ) {
+                Map.Entry<String, Double> user = users.next();
+                if (capacity * user.getValue() / totalWeight > userCap) {
+                    userRates.put(user.getKey(), userCap);
+                    capacity -= userCap;
+                    users.remove();
+                    capped = true;
+                }
+            }
+            if (!capped) {
+                for (Map.Entry<String, Double> user : userShares.entrySet()) {
+                    userRates.put(user.getKey(), capacity * user.getValue() / totalWeight);
+                }
+            }
+        }
+
+        for (Flow flow : flows) {
+            double share = (double) flow.weight / streams.get(flow.transferId) / userWeights.get(flow.user);
+            flow.rate = userRates.get(flow.user) * share;
+        }
+    }
+
+
+    private void sample() {
+        try {
+            long now = System.nanoTime();
+            Map<String, Long> rates = new HashMap<>();
+            long total = 0;
+            synchronized (this) {
+                for (Flow flow : flows) {
+                    long bytes = flow.bytes.get();
+                    long rate = (long) ((bytes - flow.sampledBytes) * 1e9 / Math.max(1, now - flow.sampledAt));
+                    flow.sampledBytes = bytes;
+                    flow.sampledAt = now;
+                    rates.merge(flow.user, rate, Long::sum);
+                    total += rate;
+                }
+            }
+            userRates = Collections.unmodifiableMap(rates);
+            ServerMetrics.transferRateSampled(total);
+        } finally {
+            TimerWheel.shared().schedule(this::sample, FILE_TRANSFER_RATE_SAMPLE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * One shaped stream, used by a single thread. Its rate is set by the scheduler and may change at any time;
+     * the token bucket lets it run ahead by a short burst and otherwise makes it wait for its tokens.
+     */
+    final class Flow implements AutoCloseable {
+        private final UUID transferId;
+        private final String user;
+        private final int weight;
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile double rate = Double.POSITIVE_INFINITY;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long sampledBytes;
+        private long sampledAt = refilledAt;
+
+        private Flow(UUID transferId, String user, int weight) {
+            this.transferId = transferId;
+            this.user = user;
+            this.weight = Math.max(1, weight);
+        }
+
+        /**
+         * @return How many bytes to move at once, so that a slow flow waits often but briefly.
+         */
+        int quantum() {
+            double current = rate;
+            if (Double.isInfinite(current)) {
+                return FILE_TRANSFER_BUFFER_BYTES;
+            }
+            return (int) Math.max(MIN_QUANTUM_BYTES, Math.min(FILE_TRANSFER_BUFFER_BYTES, current * BURST_SECONDS));
+        }
+
+        /**
+         * Takes the tokens for bytes that were moved, waiting until the flow is back within its rate.
+         *
+         * @throws InterruptedIOException If the thread is interrupted while waiting.
+         */
+        void consumed(long count) throws InterruptedIOException {
+            bytes.addAndGet(count);
+            double current = rate;
+            long now = System.nanoTime();
+            if (Double.isInfinite(current)) {
+                refilledAt = now;
+                return;
+            }
+
+            tokens = Math.min(Math.max(current * BURST_SECONDS, MIN_QUANTUM_BYTES),
+                    tokens + (now - refilledAt) * current / 1e9) - count;
+            refilledAt = now;
+            if (tokens >= 0) {
+                return;
+            }
+
+            long wait = (long) (-tokens * 1e9 / Math.max(1, current));
+            ServerMetrics.transferThrottled(wait);
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while shaping the transfer");
+            }
+        }
+
+        @Override
+        public void close() {
+            TransferScheduler.this.close(this);
+        }
+    }
+}
@@ -0,0 +1,559 @@
+package shared;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Binary format of a file transfer stream, written by the sender after its 'S' + UUID handshake and relayed
+ * to the receiver unchanged. The stream starts with a {@link Header} describing the file and the byte range
+ * that follows, then carries the range as chunks of {@code offset, length, CRC32C, codec, encoded length, data},
+ * ends with a chunk of length 0, and closes with a trailer holding the {@link TransferHash} of the whole range.
+ * Each chunk is either raw or compressed with the {@link TransferCodec} named in the header; the CRC32C and the
+ * hash always cover the raw bytes. Offsets are absolute
+ * file positions, so a receiver that kept the verified chunks of an interrupted transfer can ask the sender to
+ * resume from the first byte it is missing; the trailer then covers just the resumed range. A large file can
+ * be {@link #split split} into ranges that are sent over parallel streams, each with its own header and trailer.
+ */
+public final class ChunkedTransfer {
+    public static final int VERSION = 3;
+    public static final int MAX_CHUNK_BYTES = 16 * 1024 * 1024;
+    public static final int CHUNK_HEADER_BYTES = 21;
+    private static final int MAX_DIGEST_BYTES = 64;
+
+    private ChunkedTransfer() {
+    }
+
+
+    /**
+     * Describes the file being transferred and the range {@code [rangeStart, rangeEnd)} sent in this stream.
+     */
+    public record Header(String extension, long totalSize, long rangeStart, long rangeEnd, int chunkSize,
+                         String hashAlgorithm, String codec) {
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            byte[] extensionBytes = extension.getBytes(UTF_8);
+            out.writeByte(VERSION);
+            out.writeShort(extensionBytes.length);
+            out.write(extensionBytes);
+            out.writeUTF(hashAlgorithm);
+            out.writeUTF(codec);
+            out.writeLong(totalSize);
+            out.writeLong(rangeStart);
+            out.writeLong(rangeEnd);
+            out.writeInt(chunkSize);
+        }
+
+        public static Header readFrom(DataInputStream in) throws IOException {
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported transfer format version " + version);
+            }
+
+            byte[] extensionBytes = new byte[in.readUnsignedShort()];
+            in.readFully(extensionBytes);
+            String extension = new String(extensionBytes, UTF_8);
+            String hashAlgorithm = in.readUTF();
+            String codec = in.readUTF();
+            Header header = new Header(extension, in.readLong(), in.readLong(), in.readLong(), in.readInt(),
+                    hashAlgorithm, codec);
+
+            if (header.rangeStart < 0 || header.rangeStart > header.rangeEnd || header.rangeEnd > header.totalSize
+                    || header.chunkSize <= 0 || header.chunkSize > MAX_CHUNK_BYTES) {
+                throw new IOException("Invalid transfer header " + header);
+            }
+            return header;
+        }
+
+
+        /**
+         * @return A new hash of the algorithm announced by this header.
+         * @throws IOException If the algorithm is not supported.
+         */
+        public TransferHash newHash() throws IOException {
+            try {
+                return TransferHash.of(hashAlgorithm);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+
+        /**
+         * @return A new codec of the kind announced by this header, for the compressed chunks.
+         * @throws IOException If the codec is not supported.
+         */
+        public TransferCodec newCodec() throws IOException {
+            try {
+                return TransferCodec.of(codec);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Splits {@code [start, end)} into one contiguous range per stream, cut on chunk boundaries. Ranges at the
+     * end are empty when there are fewer chunks than streams.
+     *
+     * @return {@code streams + 1} boundaries; stream {@code i} sends {@code [bounds[i], bounds[i + 1])}.
+     */
+    public static long[] split(long start, long end, int streams, int chunkSize) {
+        long chunks = (end - start + chunkSize - 1) / chunkSize;
+        long[] bounds = new long[streams + 1];
+        for (int i = 0; i < streams; i++) {
+            bounds[i] = Math.min(end, start + (chunks * i + streams - 1) / streams * chunkSize);
+        }
+        bounds[streams] = end;
+        return bounds;
+    }
+
+
+    /**
+     * Puts the header of one chunk of file data, protected by a CRC32C, so the data itself can be written
+     * straight from where it is, e.g. a mapped file, with a gathering write.
+     *
+     * @param out           A buffer with at least {@link #CHUNK_HEADER_BYTES} remaining.
+     * @param offset        The file position of the first byte.
+     * @param data          The raw chunk data; its position is left unchanged.
+     * @param codec         The {@link TransferCodec#id()} the data is sent with, 0 if it is sent raw.
+     * @param encodedLength The number of bytes sent for the chunk.
+     */
+    public static void putChunkHeader(ByteBuffer out, long offset, ByteBuffer data, int codec, int encodedLength) {
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+
+        out.putLong(offset);
+        out.putInt(data.remaining());
+        out.putInt((int) crc.getValue());
+        out.put((byte) codec);
+        out.putInt(encodedLength);
+    }
+
+
+    /**
+     * Writes the end of stream marker.
+     *
+     * @param offset The file position right after the last chunk.
+     */
+    public static void writeEnd(DataOutputStream out, long offset) throws IOException {
+        out.writeLong(offset);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(0);
+        out.writeInt(0);
+    }
+
+
+    /**
+     * Writes the trailer that follows the end marker.
+     *
+     * @param digest The hash of every byte of the range.
+     */
+    public static void writeTrailer(DataOutputStream out, byte[] digest) throws IOException {
+        out.writeByte(digest.length);
+        out.write(digest);
+    }
+
+
+    /**
+     * Reads the trailer and compares it with the hash the receiver computed while reading the chunks.
+     *
+     * @throws IOException If the digests differ.
+     */
+    public static void verifyTrailer(DataInputStream in, byte[] digest) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length > MAX_DIGEST_BYTES) {
+            throw new IOException("Invalid digest length " + length);
+        }
+
+        byte[] expected = new byte[length];
+        in.readFully(expected);
+        if (!MessageDigest.isEqual(expected, digest)) {
+            throw new IOException("Digest mismatch, the received data is corrupt");
+        }
+    }
+
+
+    /**
+     * A stream stored in a file: its header, where the chunks start, and the digest from its trailer.
+     */
+    public record StoredStream(Header header, long dataOffset, byte[] digest) {
+    }
+
+
+    /**
+     * Walks a stream stored in a file, e.g. by the server's spool, to check that it was stored completely:
+     * every chunk follows the previous one, the range ends with the end marker, and the file ends right after
+     * the trailer. The chunk data is only read, and checked, if it has to be hashed; otherwise the CRCs are
+     * left to the receiver.
+     *
+     * @param hash Fed with the raw chunk data, or null to skip over it.
+     * @throws IOException If the stream is truncated or malformed.
+     */
+    public static StoredStream skim(FileChannel file, TransferHash hash) throws IOException {
+        file.position(0);
+        DataInputStream in = new DataInputStream(Channels.newInputStream(file));
+        Header header = Header.readFrom(in);
+        long dataOffset = file.position();
+
+        try (TransferCodec codec = header.newCodec()) {
+            byte[] buffer = hash != null ? new byte[header.chunkSize] : null;
+            long offset = header.rangeStart;
+            while (true) {
+                if (hash != null) {
+                    int length = readChunk(in, offset, buffer, codec);
+                    if (length == 0) {
+                        break;
+                    }
+                    hash.update(buffer, 0, length);
+                    offset += length;
+                    continue;
+                }
+
+                long chunkOffset = in.readLong();
+                int length = in.readInt();
+                in.readInt();
+                int chunkCodec = in.readUnsignedByte();
+                int encodedLength = in.readInt();
+
+                if (chunkOffset != offset || length < 0 || length > header.chunkSize
+                        || !isValidEncoding(chunkCodec, encodedLength, length, codec)) {
+                    throw new IOException("Invalid chunk at offset " + chunkOffset + " in the stored stream");
+                }
+                if (length == 0) {
+                    break;
+                }
+                file.position(file.position() + encodedLength);
+                offset += length;
+            }
+
+            if (offset != header.rangeEnd) {
+                throw new IOException("The stored stream ends at " + offset + " of " + header.rangeEnd + " bytes");
+            }
+        }
+
+        int digestLength = in.readUnsignedByte();
+        if (digestLength > MAX_DIGEST_BYTES || file.position() + digestLength != file.size()) {
+            throw new IOException("The stored stream has no valid trailer");
+        }
+        byte[] digest = new byte[digestLength];
+        in.readFully(digest);
+        return new StoredStream(header, dataOffset, digest);
+    }
+
+
+    /**
+     * Where a complete stored stream is sent again from for a receiver that already has part of it: the file
+     * position of the first chunk to send, the file offset that chunk starts at, where the stored trailer starts,
+     * and the digest of the chunks from there on, which replaces it.
+     */
+    public record ResumePoint(long position, long rangeStart, long trailerPosition, byte[] digest) {
+    }
+
+
+    /**
+     * Finds the last chunk of a complete stored stream that starts at or before the offset, skipping the chunks
+     * before it by their headers. The stored trailer covers the whole range, so the chunks from there on are read
+     * and checked again to hash the shorter range.
+     *
+     * @param dataOffset Where the first chunk is stored.
+     * @param offset     The number of bytes of the file the receiver already has.
+     * @throws IOException If the stream is truncated or malformed.
+     */
+    public static ResumePoint resume(FileChannel file, Header header, long dataOffset, long offset) throws IOException {
+        ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+        long position = dataOffset;
+        long chunkOffset;
+        while (true) {
+            chunkHeader.clear();
+            while (chunkHeader.hasRemaining()) {
+                if (file.read(chunkHeader, position + chunkHeader.position()) < 0) {
+                    throw new EOFException("The stored stream is truncated");
+                }
+            }
+            chunkHeader.flip();
+            chunkOffset = chunkHeader.getLong();
+            int length = chunkHeader.getInt();
+            chunkHeader.getInt();
+            chunkHeader.get();
+            int encodedLength = chunkHeader.getInt();
+
+            if (length < 0 || encodedLength < 0) {
+                throw new IOException("Invalid chunk at offset " + chunkOffset + " in the stored stream");
+            }
+            if (length == 0 || chunkOffset + length > offset) {
+                break;
+            }
+            position += CHUNK_HEADER_BYTES + encodedLength;
+        }
+
+        TransferHash hash = header.newHash();
+        file.position(position);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file),
+                CHUNK_HEADER_BYTES + header.chunkSize));
+        try (TransferCodec codec = header.newCodec()) {
+            byte[] buffer = new byte[header.chunkSize];
+            long next = chunkOffset;
+            int length;
+            while ((length = readChunk(in, next, buffer, codec)) > 0) {
+                hash.update(buffer, 0, length);
+                next += length;
+            }
+            if (next != header.rangeEnd) {
+                throw new IOException("The stored stream ends at " + next + " of " + header.rangeEnd + " bytes");
+            }
+        }
+
+        byte[] digest = hash.digest();
+        long trailerPosition = file.size() - 1 - digest.length;
+        if (trailerPosition < position) {
+            throw new IOException("The stored stream has no valid trailer");
+        }
+        return new ResumePoint(position, chunkOffset, trailerPosition, digest);
+    }
+
+
+    /**
+     * Follows a stream as it goes by, reading only the headers, to tell how much of the file it has carried so
+     * far; compressed chunks count with their raw length. A relay feeds it the bytes it passes on, a spool the
+     * end of what it has stored. A stream it cannot make sense of is simply not followed any further.
+     */
+    public static final class Scanner {
+        private static final int MAX_HEADER_BYTES = 8 * 1024;
+
+        private byte[] pending = new byte[256];
+        private int pendingLength;
+        private final byte[] chunkHeader = new byte[CHUNK_HEADER_BYTES];
+        private int chunkHeaderLength;
+        private Header header;
+        private long skip;
+        private int chunkLength;
+        private long nextChunk;
+        private long chunkEnd;
+        private volatile long bytes;
+        private volatile boolean ended;
+        private boolean failed;
+
+        /**
+         * Follows a stream from its first byte, passed to {@link #scan(ByteBuffer)}.
+         */
+        public Scanner() {
+        }
+
+        /**
+         * Follows a stream stored in a file, passed to {@link #scan(FileChannel, long)}.
+         *
+         * @param header     The header of the stored stream.
+         * @param dataOffset Where the first chunk starts in the file.
+         */
+        public Scanner(Header header, long dataOffset) {
+            this.header = header;
+            this.nextChunk = dataOffset;
+        }
+
+        /**
+         * @return The header of the stream, or null if it has not been seen yet.
+         */
+        public Header header() {
+            return header;
+        }
+
+        /**
+         * @return The number of file bytes in the chunks that have gone by completely.
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        /**
+         * @return True once the end of stream marker has gone by.
+         */
+        public boolean ended() {
+            return ended;
+        }
+
+        /**
+         * Follows the next bytes of the stream.
+         *
+         * @param data The bytes, in stream order; its position is left unchanged.
+         */
+        public void scan(ByteBuffer data) {
+            ByteBuffer in = data.duplicate();
+            if (header == null && !failed) {
+                int count = in.remaining();
+                if (pendingLength + count > MAX_HEADER_BYTES) {
+                    failed = true;
+                    return;
+                }
+                if (pendingLength + count > pending.length) {
+                    pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + count));
+                }
+                in.get(pending, pendingLength, count);
+                pendingLength += count;
+
+                ByteArrayInputStream headerBytes = new ByteArrayInputStream(pending, 0, pendingLength);
+                try {
+                    header = Header.readFrom(new DataInputStream(headerBytes));
+                } catch (EOFException e) {
+                    return;
+                } catch (IOException e) {
+                    failed = true;
+                    return;
+                }
+                in = ByteBuffer.wrap(pending, pendingLength - headerBytes.available(), headerBytes.available());
+                pendingLength = 0;
+            }
+
+            while (in.hasRemaining() && !ended && !failed) {
+                if (skip > 0) {
+                    int count = (int) Math.min(skip, in.remaining());
+                    in.position(in.position() + count);
+                    skip -= count;
+                    if (skip == 0) {
+                        bytes += chunkLength;
+                    }
+                    continue;
+                }
+
+                int count = Math.min(CHUNK_HEADER_BYTES - chunkHeaderLength, in.remaining());
+                in.get(chunkHeader, chunkHeaderLength, count);
+                chunkHeaderLength += count;
+                if (chunkHeaderLength == CHUNK_HEADER_BYTES) {
+                    chunkHeaderLength = 0;
+                    skip = readChunkHeader(ByteBuffer.wrap(chunkHeader));
+                }
+            }
+        }
+
+        /**
+         * Follows the stream stored in a file as far as it has been written, or read.
+         *
+         * @param end The end of the part of the file to follow.
+         */
+        public void scan(FileChannel file, long end) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(chunkHeader);
+            while (!ended && !failed) {
+                if (chunkEnd > 0) {
+                    if (end < chunkEnd) {
+                        return;
+                    }
+                    bytes += chunkLength;
+                    nextChunk = chunkEnd;
+                    chunkEnd = 0;
+                }
+                if (nextChunk + CHUNK_HEADER_BYTES > end) {
+                    return;
+                }
+
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (file.read(buffer, nextChunk + buffer.position()) < 0) {
+                        throw new EOFException("The stored stream is truncated");
+                    }
+                }
+                buffer.flip();
+                int encodedLength = readChunkHeader(buffer);
+                if (encodedLength > 0) {
+                    chunkEnd = nextChunk + CHUNK_HEADER_BYTES + encodedLength;
+                }
+            }
+        }
+
+        /**
+         * Takes in a chunk header.
+         *
+         * @return The number of bytes sent for the chunk data, or 0 at the end of the stream.
+         */
+        private int readChunkHeader(ByteBuffer in) {
+            in.getLong();
+            int length = in.getInt();
+            in.getInt();
+            in.get();
+            int encodedLength = in.getInt();
+
+            if (length == 0) {
+                ended = true;
+                return 0;
+            }
+            if (length < 0 || encodedLength <= 0) {
+                failed = true;
+                return 0;
+            }
+            chunkLength = length;
+            return encodedLength;
+        }
+    }
+
+
+    /**
+     * @return The extension of a file name, without the dot, or an empty string if it has none.
+     */
+    public static String extension(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot > 0 ? filename.substring(dot + 1) : "";
+    }
+
+
+    /**
+     * Reads the next chunk into the buffer, decompressing it if needed, and verifies it, so nothing unverified
+     * is ever written to disk.
+     *
+     * @param expectedOffset The file position the chunk must start at.
+     * @param buffer         A buffer of at least the header's chunk size.
+     * @param codec          The codec named in the header.
+     * @return The length of the chunk, or 0 at the end of the stream.
+     * @throws IOException If the chunk is out of place, too large, badly compressed, or fails its CRC check.
+     */
+    public static int readChunk(DataInputStream in, long expectedOffset, byte[] buffer, TransferCodec codec)
+            throws IOException {
+        long offset = in.readLong();
+        int length = in.readInt();
+        int checksum = in.readInt();
+        int chunkCodec = in.readUnsignedByte();
+        int encodedLength = in.readInt();
+
+        if (offset != expectedOffset) {
+            throw new IOException("Expected a chunk at offset " + expectedOffset + " but got " + offset);
+        }
+        if (length < 0 || length > buffer.length) {
+            throw new IOException("Invalid chunk length " + length);
+        }
+        if (!isValidEncoding(chunkCodec, encodedLength, length, codec)) {
+            throw new IOException("Invalid encoding of the chunk at offset " + offset);
+        }
+        if (length == 0) {
+            return 0;
+        }
+
+        if (chunkCodec == 0) {
+            in.readFully(buffer, 0, length);
+        } else {
+            codec.read(in, encodedLength, buffer, length);
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(buffer, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("CRC32C mismatch in the chunk at offset " + offset);
+        }
+        return length;
+    }
+
+
+    /**
+     * @return True if a chunk is either raw, or compressed with the negotiated codec and not larger than raw.
+     */
+    private static boolean isValidEncoding(int chunkCodec, int encodedLength, int length, TransferCodec codec) {
+        if (chunkCodec == 0) {
+            return encodedLength == length;
+        }
+        return chunkCodec == codec.id() && encodedLength > 0 && encodedLength <= length;
+    }
+}
@@ -0,0 +1,67 @@
+package shared;
+
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.databind.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The single JSON codec shared by the server and the client. It owns the only {@link ObjectMapper} and keeps
+ * an immutable {@link ObjectReader} and {@link ObjectWriter} per message type, so opening a connection costs
+ * nothing and the (de)serializers stay warm. The protocol DTOs are prebuilt; any other type is added on first use.
+ */
+public final class Codec {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Map<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    static {
+        List<Class<?>> messageTypes = List.of(
+                Broadcast.class, BroadcastResponse.class, ByeResponse.class, DCSN.class, DisconnectMessage.class,
+                EncryptedMessage.class, EncryptedMessageRequest.class, EncryptedMessageResponse.class,
+                FileTransferRequest.class, FileTransferResponse.class, GameNotification.class, GuessingGame.class,
+                JoinGame.class, JoinedMessage.class, LeftMessage.class, ListOfUsers.class, Login.class,
+                LoginRequest.class, ParseError.class, PongError.class, PrivateMessage.class,
+                PrivateMessageReq.class, PrivateMessageResp.class, StartGuessingGame.class, WelcomeMessage.class);
+
+        for (Class<?> type : messageTypes) {
+            READERS.put(type, MAPPER.readerFor(type));
+            WRITERS.put(type, MAPPER.writerFor(type));
+        }
+    }
+
+    private Codec() {
+    }
+
+
+    public static ObjectReader reader(Class<?> type) {
+        return READERS.computeIfAbsent(type, MAPPER::readerFor);
+    }
+
+
+    public static ObjectWriter writer(Class<?> type) {
+        return WRITERS.computeIfAbsent(type, MAPPER::writerFor);
+    }
+
+
+    public static <T> T read(byte[] json, int offset, int length, Class<T> type) throws IOException {
+        return reader(type).readValue(json, offset, length);
+    }
+
+
+    public static <T> T read(String json, Class<T> type) throws JsonProcessingException {
+        return reader(type).readValue(json);
+    }
+
+
+    public static byte[] writeAsBytes(Object value) throws JsonProcessingException {
+        return writer(value.getClass()).writeValueAsBytes(value);
+    }
+
+
+    public static String writeAsString(Object value) throws JsonProcessingException {
+        return writer(value.getClass()).writeValueAsString(value);
+    }
+}
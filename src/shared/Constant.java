@@ -19,8 +19,11 @@ public class Constant {
     public static final int NOT_A_PARTICIPANT = 6006;
     public static final int SEND_TO_SELF_ERROR = 6007;
     public static final int EMPTY_MESSAGE_BODY_ERROR = 6008;
+    public static final int SPOOL_QUOTA_EXCEEDED = 6009;
+    public static final int TOO_MANY_RECEIVERS = 6010;
     public static final int PONG_TIMEOUT = 7000;
     public static final int UNTERMINATED_MESSAGE = 7001;
+    public static final int SLOW_CONSUMER = 7002;
     public static final int INVALID_USER_FORMAT = 7004;
     public static final int YOUR_GUESS_IS_TOO_LOW = 7005;
     public static final int YOUR_GUESS_IS_TOO_HIGH = 7006;
@@ -69,8 +72,65 @@ public class Constant {
     public static final int GAME_TIMEOUT_MILLISECONDS = 120000;
     public static final String FILE_TRANSFER_REQUEST = "FILE_TRANSFER_REQUEST";
     public static final String FILE_TRANSFER_RESPONSE = "FILE_TRANSFER_RESPONSE";
+    public static final String FILE_TRANSFER_PROGRESS = "FILE_TRANSFER_PROGRESS";
     public static final long PONG_TIMEOUT_MS = 3000;
 
+    //OUTBOUND QUEUES (overridable with -D system properties) :
+    public static final int OUTBOUND_QUEUE_CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+    public static final String SLOW_CONSUMER_POLICY = System.getProperty("chat.outbound.policy", "DROP_OLDEST_BROADCAST");
+    public static final long OUTBOUND_BLOCK_TIMEOUT_MS = Long.getLong("chat.outbound.blockTimeoutMs", 5000);
+    public static final int WRITE_BATCH_MAX_FRAMES = Integer.getInteger("chat.outbound.batchFrames", 64);
+    public static final int WRITE_BATCH_MAX_BYTES = Integer.getInteger("chat.outbound.batchBytes", 64 * 1024);
+    public static final long WRITE_BATCH_LINGER_MICROS = Long.getLong("chat.outbound.lingerMicros", 0);
+
+    //INBOUND FRAMES (overridable with -D system properties) :
+    public static final int MAX_FRAME_BYTES = Integer.getInteger("chat.inbound.maxFrameBytes", 64 * 1024);
+    public static final int READ_BUDGET_BYTES = Integer.getInteger("chat.inbound.readBudgetBytes", 64 * 1024);
+    public static final int READ_BUDGET_FRAMES = Integer.getInteger("chat.inbound.readBudgetFrames", 64);
+
+    //TIMERS (overridable with -D system properties) :
+    public static final long TIMER_TICK_MS = Long.getLong("chat.timer.tickMs", 10);
+    public static final int TIMER_WHEEL_SIZE = Integer.getInteger("chat.timer.wheelSize", 512);
+
+    //FILE TRANSFER RELAY (overridable with -D system properties) :
+    public static final long FILE_TRANSFER_HANDSHAKE_TIMEOUT_MS = Long.getLong("chat.transfer.handshakeTimeoutMs", 10000);
+    public static final long FILE_TRANSFER_RENDEZVOUS_TIMEOUT_MS = Long.getLong("chat.transfer.rendezvousTimeoutMs", 60000);
+    public static final long FILE_TRANSFER_OFFER_TIMEOUT_MS = Long.getLong("chat.transfer.offerTimeoutMs", 5 * 60 * 1000);
+    public static final int FILE_TRANSFER_BUFFER_BYTES = Integer.getInteger("chat.transfer.bufferBytes", 256 * 1024);
+    public static final int FILE_TRANSFER_POOLED_BUFFERS = Integer.getInteger("chat.transfer.pooledBuffers", 64);
+    public static final int FILE_TRANSFER_CHUNK_BYTES = Integer.getInteger("chat.transfer.chunkBytes", 256 * 1024);
+    public static final int FILE_TRANSFER_MAX_RETRIES = Integer.getInteger("chat.transfer.maxRetries", 3);
+    public static final long FILE_TRANSFER_RETRY_DELAY_MS = Long.getLong("chat.transfer.retryDelayMs", 2000);
+    public static final long FILE_TRANSFER_MAP_BYTES = Long.getLong("chat.transfer.mapBytes", 64L * 1024 * 1024);
+    public static final int FILE_TRANSFER_STREAMS = Integer.getInteger("chat.transfer.streams", 4);
+    public static final long FILE_TRANSFER_PARALLEL_MIN_BYTES = Long.getLong("chat.transfer.parallelMinBytes", 64L * 1024 * 1024);
+    public static final String FILE_TRANSFER_HASH = System.getProperty("chat.transfer.hash", "SHA-256");
+    public static final String FILE_TRANSFER_CODECS = System.getProperty("chat.transfer.codecs", "lz,deflate");
+    public static final int FILE_TRANSFER_DEFLATE_LEVEL = Integer.getInteger("chat.transfer.deflateLevel", 6);
+    public static final long FILE_TRANSFER_PROGRESS_INTERVAL_MS = Long.getLong("chat.transfer.progressIntervalMs", 1000);
+    public static final long FILE_TRANSFER_STALL_TIMEOUT_MS = Long.getLong("chat.transfer.stallTimeoutMs", 30000);
+
+    //FILE TRANSFER SHAPING (overridable with -D system properties, 0 means unlimited) :
+    public static final long FILE_TRANSFER_MAX_BYTES_PER_SECOND = Long.getLong("chat.transfer.maxBytesPerSecond", 0);
+    public static final long FILE_TRANSFER_USER_BYTES_PER_SECOND = Long.getLong("chat.transfer.userBytesPerSecond", 0);
+    public static final int FILE_TRANSFER_LIVE_WEIGHT = Integer.getInteger("chat.transfer.liveWeight", 2);
+    public static final int FILE_TRANSFER_SPOOL_WEIGHT = Integer.getInteger("chat.transfer.spoolWeight", 1);
+    public static final long FILE_TRANSFER_RATE_SAMPLE_MS = Long.getLong("chat.transfer.rateSampleMs", 1000);
+
+    //FILE TRANSFER SPOOL (overridable with -D system properties) :
+    public static final String FILE_TRANSFER_SPOOL_DIR = System.getProperty("chat.spool.dir", "spool");
+    public static final long FILE_TRANSFER_SPOOL_QUOTA_BYTES = Long.getLong("chat.spool.quotaBytes", 1024L * 1024 * 1024);
+    public static final long FILE_TRANSFER_BLOB_CACHE_BYTES = Long.getLong("chat.spool.cacheBytes", 512L * 1024 * 1024);
+    public static final long FILE_TRANSFER_SPOOL_TTL_MS = Long.getLong("chat.spool.ttlMs", 24 * 60 * 60 * 1000);
+    public static final int FILE_TRANSFER_MAX_RECEIVERS = Integer.getInteger("chat.spool.maxReceivers", 32);
+
+    //GAMES (overridable with -D system properties) :
+    public static final int GAME_WORKERS = Integer.getInteger("chat.game.workers", Runtime.getRuntime().availableProcessors());
+    public static final int GAME_MAILBOX_BATCH = Integer.getInteger("chat.game.mailboxBatch", 64);
+
+    //METRICS (overridable with -D system properties, 0 disables the log) :
+    public static final long METRICS_LOG_INTERVAL_MS = Long.getLong("chat.metrics.logIntervalMs", 60000);
+
     //ENCRYPTED MESSAGE :
     public static final String SECURE_MESSAGE_REQ  = "SECURE_MESSAGE_REQ";
     public static final String SECURE_MESSAGE_RES  = "SECURE_MESSAGE_RES";
@@ -18,6 +18,10 @@ public class DCSN implements Response{
         return status;
     }
 
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
     public void setReason(String reason) {
         this.reason = reason;
     }
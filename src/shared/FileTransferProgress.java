@@ -0,0 +1,107 @@
+package shared;
+
+import java.util.UUID;
+
+/**
+ * Sent by the server to both parties of a file transfer while it is running, at most once per progress
+ * interval, and once more when it ends.
+ */
+public class FileTransferProgress implements Sendable {
+    public static final String ACTIVE = "ACTIVE";
+    public static final String COMPLETE = "COMPLETE";
+    public static final String INTERRUPTED = "INTERRUPTED";
+    public static final String STALLED = "STALLED";
+
+    public UUID transferId;
+    public String sender;
+    public String receiver;
+    public long bytes;
+    public long totalBytes;
+    public long bytesPerSecond;
+    public long etaSeconds;
+    public String status;
+
+
+    public FileTransferProgress() {
+    }
+
+    public UUID getTransferId() {
+        return transferId;
+    }
+
+    public void setTransferId(UUID transferId) {
+        this.transferId = transferId;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public void setSender(String sender) {
+        this.sender = sender;
+    }
+
+    public String getReceiver() {
+        return receiver;
+    }
+
+    public void setReceiver(String receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * @return How much of the file the receiver has, counting what it had before a resumed transfer.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return The size of the file, or 0 if the server has not seen it yet.
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * @return The recent rate of the transfer, in file bytes per second.
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @return The estimated time until the transfer completes, or -1 if it cannot be estimated yet.
+     */
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
+    /**
+     * @return {@link #ACTIVE} while the transfer runs; {@link #COMPLETE}, {@link #INTERRUPTED} or
+     * {@link #STALLED} when it has ended.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+}
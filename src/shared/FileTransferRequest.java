@@ -1,11 +1,20 @@
 package shared;
 
+import java.util.List;
+import java.util.UUID;
+
 public class FileTransferRequest implements Sendable{
 
     public String receiver;
+    public List<String> receivers;
     public String filename;
-    public int size;
+    public long size;
     public String sender;
+    public UUID transferId;
+    public int streams;
+    public boolean spool;
+    public String contentHash;
+    public List<String> codecs;
     public String status;
     public int code;
 
@@ -21,6 +30,18 @@ public class FileTransferRequest implements Sendable{
         this.receiver = receiver;
     }
 
+    /**
+     * @return The users a file is sent to at once, or null if it is sent to {@link #getReceiver()} only. The
+     * sender uploads the file once and the server delivers it to every receiver.
+     */
+    public List<String> getReceivers() {
+        return receivers;
+    }
+
+    public void setReceivers(List<String> receivers) {
+        this.receivers = receivers;
+    }
+
     public String getFilename() {
         return filename;
     }
@@ -29,11 +50,11 @@ public class FileTransferRequest implements Sendable{
         this.filename = filename;
     }
 
-    public int getSize() {
+    public long getSize() {
         return size;
     }
 
-    public void setSize(int size) {
+    public void setSize(long size) {
         this.size = size;
     }
 
@@ -45,6 +66,61 @@ public class FileTransferRequest implements Sendable{
         this.sender = sender;
     }
 
+    public UUID getTransferId() {
+        return transferId;
+    }
+
+    public void setTransferId(UUID transferId) {
+        this.transferId = transferId;
+    }
+
+    /**
+     * @return The largest number of parallel streams the sender is willing to use.
+     */
+    public int getStreams() {
+        return streams;
+    }
+
+    public void setStreams(int streams) {
+        this.streams = streams;
+    }
+
+    /**
+     * @return True if the file is stored on the server until the receiver downloads it, instead of being
+     * relayed while both users are connected.
+     */
+    public boolean isSpool() {
+        return spool;
+    }
+
+    public void setSpool(boolean spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * @return The hex encoded SHA-256 of the file, if the sender knows it, so the server can serve the file
+     * from its cache instead of having it uploaded again.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return The codecs the sender can compress the file with, most preferred first; empty if the file does
+     * not compress.
+     */
+    public List<String> getCodecs() {
+        return codecs;
+    }
+
+    public void setCodecs(List<String> codecs) {
+        this.codecs = codecs;
+    }
+
 
 
 }
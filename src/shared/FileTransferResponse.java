@@ -9,6 +9,9 @@ public class FileTransferResponse implements Response{
 
     String sender;
     UUID transferId;
+    long offset;
+    int streams;
+    String codec;
 
     public String getSender() {
         return sender;
@@ -43,4 +46,37 @@ public class FileTransferResponse implements Response{
     public void setTransferId(UUID transferId) {
         this.transferId = transferId;
     }
+
+    /**
+     * @return The number of bytes the receiver already has, which the sender must not send again.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * @return The number of parallel streams the receiver connects, at most what the sender offered.
+     */
+    public int getStreams() {
+        return streams;
+    }
+
+    public void setStreams(int streams) {
+        this.streams = streams;
+    }
+
+    /**
+     * @return The codec the sender may compress chunks with, picked from the ones it offered.
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
 }
@@ -0,0 +1,249 @@
+package shared;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.*;
+import static shared.Constant.*;
+
+/**
+ * Splits the byte stream of a connection into protocol frames ({@code HEADER [payload]}) terminated by
+ * {@code \n}, {@code \r} or {@code \r\n}. Bytes are read straight into a reusable buffer and scanned in place:
+ * the header is matched against the known {@link Constant} headers byte by byte, and the payload is handed
+ * to the handler as a slice of the buffer. Only an incomplete trailing frame is ever copied, to the front of
+ * the buffer, so frames split over several packets are reassembled. A frame that grows past the maximum size
+ * without a terminator fails with a {@link FrameTooLongException} instead of growing the buffer further.
+ */
+public class FrameDecoder {
+
+    /**
+     * Receives decoded frames.
+     */
+    public interface FrameHandler {
+
+        /**
+         * @param header  The message header; the {@link Constant} instance for known headers.
+         * @param payload The message body, valid only during this call.
+         */
+        void onFrame(String header, Payload payload) throws IOException;
+    }
+
+    private static final String[] KNOWN_HEADERS = {
+            BROADCAST, BROADCAST_REQ, BROADCAST_RESP, DSCN, WELCOME, LOGIN, LOGIN_RESP, PING, PONG, PONG_ERROR,
+            BYE, BYE_RESP, LEFT, JOINED, UNKNOWN_COMMAND, PARSE_ERROR, LIST_USERS_REQ, LIST_USERS_RESP,
+            PRIVATE_MESSAGE, PRIVATE_MESSAGE_REQ, PRIVATE_MESSAGE_RESP, START_GAME_REQ, START_GAME_RESP,
+            GAME_NOTIFICATION, JOIN_GAME_REQ, JOIN_GAME_RESP, GUESS_NUMBER_REQ, GUESS_NUMBER_RESP, GAME_RESULTS,
+            FILE_TRANSFER_REQUEST, FILE_TRANSFER_RESPONSE, FILE_TRANSFER_PROGRESS, SECURE_MESSAGE_REQ,
+            SECURE_MESSAGE_RES, SECURE_MESSAGE
+    };
+    private static final String[][] HEADERS_BY_LENGTH = indexHeaders();
+    private static final int INITIAL_CAPACITY = 8192;
+
+    private final int maxFrameBytes;
+    private byte[] buffer;
+    private ByteBuffer view;
+    private int start;
+    private int scan;
+    private int end;
+    private boolean skipLineFeed;
+
+
+    /**
+     * Creates a decoder that accepts frames up to the configured {@link Constant#MAX_FRAME_BYTES}.
+     */
+    public FrameDecoder() {
+        this(MAX_FRAME_BYTES);
+    }
+
+
+    /**
+     * @param maxFrameBytes The largest frame accepted, excluding its terminator.
+     */
+    public FrameDecoder(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+        this.buffer = new byte[Math.min(INITIAL_CAPACITY, maxFrameBytes + 1)];
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    private static String[][] indexHeaders() {
+        int maxLength = Arrays.stream(KNOWN_HEADERS).mapToInt(String::length).max().orElse(0);
+        List<List<String>> buckets = new ArrayList<>();
+        for (int i = 0; i <= maxLength; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (String header : KNOWN_HEADERS) {
+            buckets.get(header.length()).add(header);
+        }
+        return buckets.stream().map(bucket -> bucket.toArray(new String[0])).toArray(String[][]::new);
+    }
+
+
+    /**
+     * Reads whatever the stream has available into the buffer, blocking until at least one byte arrives.
+     *
+     * @return The number of bytes read, or -1 at the end of the stream.
+     */
+    public int readFrom(InputStream in) throws IOException {
+        ensureWritable();
+        int bytesRead = in.read(buffer, end, buffer.length - end);
+        if (bytesRead > 0) {
+            end += bytesRead;
+        }
+        return bytesRead;
+    }
+
+
+    /**
+     * Reads at most {@code maxBytes} of whatever the channel has available into the buffer.
+     *
+     * @return The number of bytes read, or -1 at the end of the stream.
+     */
+    public int readFrom(ReadableByteChannel channel, int maxBytes) throws IOException {
+        ensureWritable();
+        view.limit((int) Math.min(buffer.length, (long) end + maxBytes)).position(end);
+        int bytesRead = channel.read(view);
+        if (bytesRead > 0) {
+            end += bytesRead;
+        }
+        return bytesRead;
+    }
+
+
+    /**
+     * Dispatches every complete frame that is buffered.
+     */
+    public void decode(FrameHandler handler) throws IOException {
+        while (decodeOne(handler)) {
+            // Keep going until only an incomplete frame is left
+        }
+    }
+
+
+    /**
+     * Dispatches at most {@code maxFrames} of the complete frames that are buffered.
+     *
+     * @return The number of frames dispatched; if it equals {@code maxFrames}, more may be buffered.
+     */
+    public int decode(FrameHandler handler, int maxFrames) throws IOException {
+        int frames = 0;
+        while (frames < maxFrames && decodeOne(handler)) {
+            frames++;
+        }
+        return frames;
+    }
+
+
+    /**
+     * Dispatches the next complete frame, if one is buffered.
+     *
+     * @return True if a frame was dispatched.
+     */
+    public boolean decodeOne(FrameHandler handler) throws IOException {
+        while (scan < end) {
+            byte b = buffer[scan];
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') {
+                    start = ++scan;
+                    continue;
+                }
+            }
+
+            if (b == '\n' || b == '\r') {
+                skipLineFeed = b == '\r';
+                int lineStart = start;
+                int lineEnd = scan;
+                start = ++scan;
+                dispatch(lineStart, lineEnd, handler);
+                return true;
+            }
+
+            scan++;
+        }
+
+        if (end - start > maxFrameBytes) {
+            throw new FrameTooLongException(maxFrameBytes);
+        }
+        return false;
+    }
+
+
+    /**
+     * Blocks until the next frame has been read from the stream and dispatched.
+     *
+     * @return False if the stream ended first.
+     */
+    public boolean readFrame(InputStream in, FrameHandler handler) throws IOException {
+        while (!decodeOne(handler)) {
+            if (readFrom(in) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void dispatch(int lineStart, int lineEnd, FrameHandler handler) throws IOException {
+        int headerEnd = lineStart;
+        while (headerEnd < lineEnd && buffer[headerEnd] != ' ') {
+            headerEnd++;
+        }
+
+        String header = lookupHeader(lineStart, headerEnd);
+        int payloadStart = Math.min(headerEnd + 1, lineEnd);
+        handler.onFrame(header, new Payload(buffer, payloadStart, lineEnd - payloadStart));
+    }
+
+
+    private String lookupHeader(int from, int to) {
+        int length = to - from;
+
+        if (length < HEADERS_BY_LENGTH.length) {
+            for (String candidate : HEADERS_BY_LENGTH[length]) {
+                if (matches(candidate, from)) {
+                    return candidate;
+                }
+            }
+        }
+
+        return new String(buffer, from, length, UTF_8);
+    }
+
+
+    private boolean matches(String candidate, int from) {
+        for (int i = 0; i < candidate.length(); i++) {
+            if (buffer[from + i] != candidate.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Makes room at the end of the buffer by moving the incomplete frame to the front, or growing the buffer
+     * if the incomplete frame already fills it.
+     */
+    private void ensureWritable() {
+        if (start == end) {
+            start = scan = end = 0;
+        }
+        if (end < buffer.length) {
+            return;
+        }
+
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            scan -= start;
+            end -= start;
+            start = 0;
+        } else {
+            // Never past one byte over the limit: that is enough for decodeOne to reject the frame
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxFrameBytes + 1));
+            view = ByteBuffer.wrap(buffer);
+        }
+    }
+}
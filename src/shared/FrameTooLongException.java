@@ -0,0 +1,14 @@
+package shared;
+
+import java.io.*;
+
+/**
+ * Thrown when a peer sends more than the maximum frame size without a line terminator.
+ */
+public class FrameTooLongException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public FrameTooLongException(int maxFrameBytes) {
+        super("Frame exceeds " + maxFrameBytes + " bytes without a terminator");
+    }
+}
@@ -7,6 +7,7 @@ public class GuessingGame implements Response {
     public String message, status;
 
     public int code, result, guess;
+    public long gameId;
     private Map<String, String> results;
 
     @Override
@@ -53,4 +54,14 @@ public class GuessingGame implements Response {
         this.results = results;
     }
 
+    /**
+     * @return The id of the game, or 0 if none was given.
+     */
+    public long getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(long gameId) {
+        this.gameId = gameId;
+    }
 }
@@ -5,6 +5,7 @@ public class JoinGame implements Response {
     public String status, message;
 
     public int code;
+    public long gameId;
 
     @Override
     public int getCode() {
@@ -31,4 +32,15 @@ public class JoinGame implements Response {
     public void setCode(int code) {
         this.code = code;
     }
+
+    /**
+     * @return The id of the game, or 0 if none was given.
+     */
+    public long getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(long gameId) {
+        this.gameId = gameId;
+    }
 }
@@ -0,0 +1,64 @@
+package shared;
+
+import java.io.*;
+
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * The body of a received message: a slice of the decoder's read buffer, handed out without copying.
+ * A payload is only valid while the frame handler that received it is running.
+ */
+public final class Payload {
+    private static final byte[] EMPTY_OBJECT = "{}".getBytes(UTF_8);
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    public Payload(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Creates a payload from text, e.g. for a message that was not read from a socket.
+     *
+     * @param text The payload text.
+     * @return The payload.
+     */
+    public static Payload of(String text) {
+        byte[] bytes = text.getBytes(UTF_8);
+        return new Payload(bytes, 0, bytes.length);
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Deserializes the payload straight from the byte slice. A missing body is read as {@code {}}.
+     *
+     * @param type The type to read.
+     * @return The deserialized value.
+     * @throws IOException If the payload is not valid JSON for the type.
+     */
+    public <T> T read(Class<T> type) throws IOException {
+        if (length == 0) {
+            return Codec.read(EMPTY_OBJECT, 0, EMPTY_OBJECT.length, type);
+        }
+        return Codec.read(bytes, offset, length, type);
+    }
+
+    /**
+     * @return The payload as text, or {@code {}} if the message had no body.
+     */
+    public String asString() {
+        return length == 0 ? "{}" : new String(bytes, offset, length, UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return asString();
+    }
+}
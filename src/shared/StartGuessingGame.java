@@ -4,6 +4,7 @@ public class StartGuessingGame implements Response {
     public String status, message;
 
     public int code;
+    public long gameId;
 
     @Override
     public int getCode() {
@@ -24,4 +25,15 @@ public class StartGuessingGame implements Response {
     }
 
     public void setMessage(String message) { this.message = message; }
+
+    /**
+     * @return The id of the game, or 0 if none was given.
+     */
+    public long getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(long gameId) {
+        this.gameId = gameId;
+    }
 }
@@ -0,0 +1,376 @@
+package shared;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static shared.Constant.*;
+
+/**
+ * Compression of file transfer chunks. The sender offers the codecs it prefers in its request, the receiver
+ * picks the first one it knows, and the sender then compresses each chunk that is worth it; chunks that do
+ * not shrink are sent as they are, so incompressible data costs one attempt and no extra bytes. LZ is a
+ * byte-oriented LZ77 in the style of LZ4, cheap enough to keep up with the network; deflate compresses better
+ * at a higher CPU cost. A codec keeps its working state, so each stream uses one of its own.
+ */
+public abstract class TransferCodec implements AutoCloseable {
+    public static final String NONE = "none";
+    public static final String DEFLATE = "deflate";
+    public static final String LZ = "lz";
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of("7z", "aac", "avi", "avif", "br", "bz2",
+            "docx", "flac", "gif", "gz", "heic", "jar", "jpeg", "jpg", "lz4", "m4a", "mkv", "mov", "mp3", "mp4",
+            "ogg", "png", "pptx", "rar", "tgz", "webm", "webp", "xlsx", "xz", "zip", "zst");
+
+    private byte[] scratch = new byte[0];
+
+
+    /**
+     * @param name {@link #NONE}, {@link #DEFLATE} or {@link #LZ}; null is taken as {@link #NONE}.
+     * @return A new codec.
+     * @throws IllegalArgumentException If the codec is not supported.
+     */
+    public static TransferCodec of(String name) {
+        return switch (name == null ? NONE : name) {
+            case NONE -> new NoCodec();
+            case DEFLATE -> new DeflateCodec();
+            case LZ -> new LzCodec();
+            default -> throw new IllegalArgumentException("Unsupported codec " + name);
+        };
+    }
+
+
+    /**
+     * @param filename The file to send.
+     * @return The codecs to offer for the file, most preferred first; none for formats that are compressed
+     * already, such as archives, images and video.
+     */
+    public static List<String> offer(String filename) {
+        if (COMPRESSED_EXTENSIONS.contains(ChunkedTransfer.extension(filename).toLowerCase(Locale.ROOT))) {
+            return List.of();
+        }
+        return Arrays.stream(FILE_TRANSFER_CODECS.split(","))
+                .map(String::trim)
+                .filter(name -> name.equals(DEFLATE) || name.equals(LZ))
+                .toList();
+    }
+
+
+    /**
+     * @param offered The codecs offered by the sender, most preferred first, or null if it offered none.
+     * @return The first codec offered that is supported, or {@link #NONE}.
+     */
+    public static String negotiate(List<String> offered) {
+        if (offered != null) {
+            for (String name : offered) {
+                if (DEFLATE.equals(name) || LZ.equals(name)) {
+                    return name;
+                }
+            }
+        }
+        return NONE;
+    }
+
+
+    /**
+     * @return The name that is negotiated and written in the transfer header.
+     */
+    public abstract String name();
+
+    /**
+     * @return The non-zero id that marks chunks compressed with this codec; 0 marks raw chunks.
+     */
+    public abstract int id();
+
+    /**
+     * Compresses a chunk, unless that does not save at least an eighth of it.
+     *
+     * @param dst A buffer at least as large as the chunk.
+     * @return The compressed length, or -1 if the chunk should be sent as it is.
+     */
+    public abstract int encode(byte[] src, int length, byte[] dst);
+
+    /**
+     * Decompresses a chunk.
+     *
+     * @throws IOException If the compressed data is corrupt or does not decompress to exactly {@code length} bytes.
+     */
+    protected abstract void decode(byte[] src, int srcLength, byte[] dst, int length) throws IOException;
+
+
+    /**
+     * Reads a compressed chunk from the stream and decompresses it.
+     *
+     * @param encodedLength The compressed length from the chunk header.
+     * @param dst           Receives the chunk.
+     * @param length        The length of the chunk.
+     */
+    public void read(DataInputStream in, int encodedLength, byte[] dst, int length) throws IOException {
+        if (scratch.length < encodedLength) {
+            scratch = new byte[encodedLength];
+        }
+        in.readFully(scratch, 0, encodedLength);
+        decode(scratch, encodedLength, dst, length);
+    }
+
+
+    @Override
+    public void close() {
+    }
+
+
+    /**
+     * @return The largest compressed length worth sending for a chunk.
+     */
+    private static int worthwhile(int length) {
+        return length - Math.max(1, length / 8);
+    }
+
+
+    private static final class NoCodec extends TransferCodec {
+
+        @Override
+        public String name() {
+            return NONE;
+        }
+
+        @Override
+        public int id() {
+            return 0;
+        }
+
+        @Override
+        public int encode(byte[] src, int length, byte[] dst) {
+            return -1;
+        }
+
+        @Override
+        protected void decode(byte[] src, int srcLength, byte[] dst, int length) throws IOException {
+            throw new IOException("Chunk is marked as compressed, but no codec was negotiated");
+        }
+    }
+
+
+    private static final class DeflateCodec extends TransferCodec {
+        private final Deflater deflater = new Deflater(FILE_TRANSFER_DEFLATE_LEVEL, true);
+        private final Inflater inflater = new Inflater(true);
+
+        @Override
+        public String name() {
+            return DEFLATE;
+        }
+
+        @Override
+        public int id() {
+            return 1;
+        }
+
+        @Override
+        public int encode(byte[] src, int length, byte[] dst) {
+            int limit = worthwhile(length);
+            deflater.reset();
+            deflater.setInput(src, 0, length);
+            deflater.finish();
+            int encoded = deflater.deflate(dst, 0, limit);
+            return deflater.finished() ? encoded : -1;
+        }
+
+        @Override
+        protected void decode(byte[] src, int srcLength, byte[] dst, int length) throws IOException {
+            inflater.reset();
+            inflater.setInput(src, 0, srcLength);
+            try {
+                int decoded = 0;
+                while (decoded < length && !inflater.finished()) {
+                    int count = inflater.inflate(dst, decoded, length - decoded);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    decoded += count;
+                }
+                if (decoded != length || !inflater.finished()) {
+                    throw new IOException("Deflate chunk does not decompress to " + length + " bytes");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt deflate chunk: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+
+    /**
+     * LZ77 with the LZ4 block layout: each sequence is a token holding the literal and match lengths, the
+     * literals, and a two byte little-endian offset back into the chunk, with 255-continued lengths that do
+     * not fit the token. The last sequence only carries literals. Matches are found through a hash table of
+     * the last position of every four byte prefix, so compression is a single pass.
+     */
+    private static final class LzCodec extends TransferCodec {
+        private static final int HASH_BITS = 14;
+        private static final int MIN_MATCH = 4;
+        private static final int MAX_OFFSET = 65535;
+
+        private final int[] table = new int[1 << HASH_BITS];
+
+        @Override
+        public String name() {
+            return LZ;
+        }
+
+        @Override
+        public int id() {
+            return 2;
+        }
+
+        @Override
+        public int encode(byte[] src, int length, byte[] dst) {
+            int limit = worthwhile(length);
+            Arrays.fill(table, -1);
+
+            int out = 0;
+            int anchor = 0;
+            int position = 0;
+            while (position + MIN_MATCH <= length) {
+                int value = readInt(src, position);
+                int slot = (value * -1640531535) >>> (32 - HASH_BITS);
+                int candidate = table[slot];
+                table[slot] = position;
+
+                if (candidate < 0 || position - candidate > MAX_OFFSET || readInt(src, candidate) != value) {
+                    position++;
+                    continue;
+                }
+
+                int matchLength = MIN_MATCH;
+                while (position + matchLength < length && src[candidate + matchLength] == src[position + matchLength]) {
+                    matchLength++;
+                }
+
+                out = writeSequence(src, anchor, position - anchor, position - candidate, matchLength, dst, out, limit);
+                if (out < 0) {
+                    return -1;
+                }
+                position += matchLength;
+                anchor = position;
+            }
+
+            return writeSequence(src, anchor, length - anchor, 0, 0, dst, out, limit);
+        }
+
+        /**
+         * @return The new output position, or -1 if the sequence does not fit within the limit.
+         */
+        private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                         byte[] dst, int out, int limit) {
+            int matchCode = matchLength > 0 ? matchLength - MIN_MATCH : 0;
+            int needed = 1 + literals + literals / 255 + 1 + (matchLength > 0 ? 2 + matchCode / 255 + 1 : 0);
+            if (out + needed > limit) {
+                return -1;
+            }
+
+            dst[out++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchCode, 15));
+            out = writeLength(literals, dst, out);
+            System.arraycopy(src, literalStart, dst, out, literals);
+            out += literals;
+
+            if (matchLength > 0) {
+                dst[out++] = (byte) offset;
+                dst[out++] = (byte) (offset >>> 8);
+                out = writeLength(matchCode, dst, out);
+            }
+            return out;
+        }
+
+        private static int writeLength(int length, byte[] dst, int out) {
+            if (length >= 15) {
+                int rest = length - 15;
+                while (rest >= 255) {
+                    dst[out++] = (byte) 255;
+                    rest -= 255;
+                }
+                dst[out++] = (byte) rest;
+            }
+            return out;
+        }
+
+        @Override
+        protected void decode(byte[] src, int srcLength, byte[] dst, int length) throws IOException {
+            int in = 0;
+            int out = 0;
+            while (in < srcLength) {
+                int token = src[in++] & 0xff;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int extra;
+                    do {
+                        checkInput(in, 1, srcLength);
+                        extra = src[in++] & 0xff;
+                        literals += extra;
+                    } while (extra == 255);
+                }
+                checkInput(in, literals, srcLength);
+                checkOutput(out, literals, length);
+                System.arraycopy(src, in, dst, out, literals);
+                in += literals;
+                out += literals;
+
+                if (in == srcLength) {
+                    break;
+                }
+
+                checkInput(in, 2, srcLength);
+                int offset = (src[in] & 0xff) | (src[in + 1] & 0xff) << 8;
+                in += 2;
+                if (offset == 0 || offset > out) {
+                    throw new IOException("Invalid LZ match offset " + offset);
+                }
+
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int extra;
+                    do {
+                        checkInput(in, 1, srcLength);
+                        extra = src[in++] & 0xff;
+                        matchLength += extra;
+                    } while (extra == 255);
+                }
+                matchLength += MIN_MATCH;
+                checkOutput(out, matchLength, length);
+
+                // A match that overlaps the bytes it produces repeats them; every copy doubles what can be repeated
+                for (int from = out - offset, end = out + matchLength; out < end; ) {
+                    int count = Math.min(out - from, end - out);
+                    System.arraycopy(dst, from, dst, out, count);
+                    out += count;
+                }
+            }
+
+            if (out != length) {
+                throw new IOException("LZ chunk decompressed to " + out + " of " + length + " bytes");
+            }
+        }
+
+        private static void checkInput(int in, int count, int srcLength) throws IOException {
+            if (count > srcLength - in) {
+                throw new IOException("Truncated LZ chunk");
+            }
+        }
+
+        private static void checkOutput(int out, int count, int length) throws IOException {
+            if (count > length - out) {
+                throw new IOException("LZ chunk decompresses past " + length + " bytes");
+            }
+        }
+
+        private static int readInt(byte[] src, int position) {
+            return (src[position] & 0xff) | (src[position + 1] & 0xff) << 8 | (src[position + 2] & 0xff) << 16
+                    | (src[position + 3] & 0xff) << 24;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package shared;
+
+import java.nio.*;
+import java.security.*;
+import java.util.zip.*;
+
+/**
+ * A running hash over the bytes of a file transfer, fed by the send and receive loops as the chunks go by,
+ * so the file never has to be read again just to be hashed. CRC32C is the fast choice; SHA-256 also guards
+ * against deliberate tampering.
+ */
+public abstract class TransferHash {
+    public static final String CRC32C = "CRC32C";
+    public static final String SHA_256 = "SHA-256";
+
+
+    /**
+     * @param algorithm {@link #CRC32C} or {@link #SHA_256}.
+     * @return A new, empty hash.
+     * @throws IllegalArgumentException If the algorithm is not supported.
+     */
+    public static TransferHash of(String algorithm) {
+        return switch (algorithm) {
+            case CRC32C -> new Crc32cHash();
+            case SHA_256 -> new MessageDigestHash(algorithm);
+            default -> throw new IllegalArgumentException("Unsupported hash algorithm " + algorithm);
+        };
+    }
+
+
+    public abstract void update(byte[] data, int offset, int length);
+
+    /**
+     * Feeds the remaining bytes of the buffer, leaving its position unchanged.
+     */
+    public abstract void update(ByteBuffer data);
+
+    /**
+     * @return The hash of everything fed so far.
+     */
+    public abstract byte[] digest();
+
+
+    private static final class Crc32cHash extends TransferHash {
+        private final Checksum crc = new java.util.zip.CRC32C();
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            crc.update(data, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer data) {
+            crc.update(data.duplicate());
+        }
+
+        @Override
+        public byte[] digest() {
+            long value = crc.getValue();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+    }
+
+
+    private static final class MessageDigestHash extends TransferHash {
+        private final MessageDigest digest;
+
+        private MessageDigestHash(String algorithm) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            digest.update(data, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer data) {
+            digest.update(data.duplicate());
+        }
+
+        @Override
+        public byte[] digest() {
+            return digest.digest();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package protocoltests;
+
+import org.junit.jupiter.api.*;
+import protocoltests.protocol.messages.*;
+import protocoltests.protocol.utils.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import static java.time.Duration.ofMillis;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentGamesTests {
+
+    private static Properties props = new Properties();
+    private Socket socketUser1, socketUser2, socketUser3;
+    private BufferedReader inUser1, inUser2, inUser3;
+    private PrintWriter outUser1, outUser2, outUser3;
+    private final static int max_delta_allowed_ms = 100;
+    private final static int max_response_time_ms = 1000;
+
+    @BeforeAll
+    static void setupAll() throws IOException {
+        InputStream in = ConcurrentGamesTests.class.getResourceAsStream("testconfig.properties");
+        props.load(in);
+        in.close();
+    }
+
+    @BeforeEach
+    void setup() throws IOException {
+        socketUser1 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser1 = new BufferedReader(new InputStreamReader(socketUser1.getInputStream()));
+        outUser1 = new PrintWriter(socketUser1.getOutputStream(), true);
+
+        socketUser2 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser2 = new BufferedReader(new InputStreamReader(socketUser2.getInputStream()));
+        outUser2 = new PrintWriter(socketUser2.getOutputStream(), true);
+
+        socketUser3 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser3 = new BufferedReader(new InputStreamReader(socketUser3.getInputStream()));
+        outUser3 = new PrintWriter(socketUser3.getOutputStream(), true);
+
+        receiveLineWithTimeout(inUser1); //WELCOME
+        receiveLineWithTimeout(inUser2); //WELCOME
+        receiveLineWithTimeout(inUser3); //WELCOME
+
+        // Connect all three users
+        outUser1.println(Utils.objectToMessage(new Login("player15a")));
+        outUser1.flush();
+        receiveLineWithTimeout(inUser1); //OK
+
+        outUser2.println(Utils.objectToMessage(new Login("player15b")));
+        outUser2.flush();
+        receiveLineWithTimeout(inUser2); //OK
+
+        outUser3.println(Utils.objectToMessage(new Login("player15c")));
+        outUser3.flush();
+        receiveLineWithTimeout(inUser3); //OK
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        socketUser1.close();
+        socketUser2.close();
+        socketUser3.close();
+    }
+
+    @Test
+    void TC15_1_twoGamesRunSideBySideAndAreJoinedById() throws IOException {
+        // User 1 and user 2 each start a game of their own
+        long firstGame = startGame(outUser1, inUser1);
+        long secondGame = startGame(outUser2, inUser2);
+        assertNotEquals(firstGame, secondGame);
+
+        // User 3 picks the first one, although the second one is open as well
+        outUser3.println(Utils.objectToMessage(new JoinGameReq("OK", 0, firstGame)));
+        outUser3.flush();
+
+        JoinGameResp joinGameResp = Utils.messageToObject(receiveMessageWithTimeout(inUser3, "JOIN_GAME_RESP"));
+        assertEquals("OK", joinGameResp.status());
+        assertEquals(firstGame, joinGameResp.gameId());
+    }
+
+    @Test
+    void TC15_2_userJoinsGameByUnknownIdAndReturnsNoRunningGame() throws IOException {
+        long game = startGame(outUser1, inUser1);
+
+        outUser3.println(Utils.objectToMessage(new JoinGameReq("OK", 0, game + 1000)));
+        outUser3.flush();
+
+        GameNotification gameNotification = receiveErrorWithTimeout(inUser3);
+        assertEquals("ERROR", gameNotification.status());
+        assertEquals(6005, gameNotification.code());
+    }
+
+    @Test
+    void TC15_3_userJoinsSecondGameAndReturnsAlreadyJoined() throws IOException {
+        long firstGame = startGame(outUser1, inUser1);
+        long secondGame = startGame(outUser2, inUser2);
+
+        outUser3.println(Utils.objectToMessage(new JoinGameReq("OK", 0, firstGame)));
+        outUser3.flush();
+        JoinGameResp joinGameResp = Utils.messageToObject(receiveMessageWithTimeout(inUser3, "JOIN_GAME_RESP"));
+        assertEquals("OK", joinGameResp.status());
+
+        // A user plays one game at a time
+        outUser3.println(Utils.objectToMessage(new JoinGameReq("OK", 0, secondGame)));
+        outUser3.flush();
+
+        GameNotification gameNotification = receiveErrorWithTimeout(inUser3);
+        assertEquals("ERROR", gameNotification.status());
+        assertEquals(6004, gameNotification.code());
+    }
+
+    /**
+     * Starts a game as the user.
+     *
+     * @return The id of the game.
+     */
+    private long startGame(PrintWriter out, BufferedReader in) throws IOException {
+        out.println(Utils.objectToMessage(new StartGuessingGameReq("OK", "", 0)));
+        out.flush();
+
+        StartGuessingGameResp startGuessingGameResp = Utils.messageToObject(receiveMessageWithTimeout(in,
+                "START_GAME_RESP"));
+        assertEquals("OK", startGuessingGameResp.status());
+        assertTrue(startGuessingGameResp.gameId() > 0);
+        return startGuessingGameResp.gameId();
+    }
+
+    /**
+     * Reads lines until an error notification, skipping the invitations to the games that were started.
+     */
+    private GameNotification receiveErrorWithTimeout(BufferedReader reader) throws IOException {
+        GameNotification gameNotification;
+        do {
+            gameNotification = Utils.messageToObject(receiveMessageWithTimeout(reader, "GAME_NOTIFICATION"));
+        } while (!"ERROR".equals(gameNotification.status()));
+        return gameNotification;
+    }
+
+    /**
+     * Reads lines until one with the header, skipping other traffic like JOINED.
+     */
+    private String receiveMessageWithTimeout(BufferedReader reader, String header) {
+        return assertTimeoutPreemptively(ofMillis(max_response_time_ms), () -> {
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.startsWith(header + " "));
+            return line;
+        });
+    }
+
+    private String receiveLineWithTimeout(BufferedReader reader) {
+        return assertTimeoutPreemptively(ofMillis(max_delta_allowed_ms), reader::readLine);
+    }
+
+}
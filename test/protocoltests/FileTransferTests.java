@@ -0,0 +1,320 @@
+package protocoltests;
+
+import org.junit.jupiter.api.*;
+import protocoltests.protocol.messages.*;
+import protocoltests.protocol.utils.*;
+import shared.ChunkedTransfer;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static java.time.Duration.ofMillis;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTransferTests {
+
+    private static Properties props = new Properties();
+    private Socket socketUser1, socketUser2;
+    private BufferedReader inUser1, inUser2;
+    private PrintWriter outUser1, outUser2;
+    private final static int max_delta_allowed_ms = 100;
+    private final static int max_transfer_time_ms = 5000;
+
+    @BeforeAll
+    static void setupAll() throws IOException {
+        InputStream in = FileTransferTests.class.getResourceAsStream("testconfig.properties");
+        props.load(in);
+        in.close();
+    }
+
+    @BeforeEach
+    void setup() throws IOException {
+        socketUser1 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser1 = new BufferedReader(new InputStreamReader(socketUser1.getInputStream()));
+        outUser1 = new PrintWriter(socketUser1.getOutputStream(), true);
+
+        socketUser2 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser2 = new BufferedReader(new InputStreamReader(socketUser2.getInputStream()));
+        outUser2 = new PrintWriter(socketUser2.getOutputStream(), true);
+
+        receiveLineWithTimeout(inUser1); //WELCOME
+        receiveLineWithTimeout(inUser2); //WELCOME
+
+        // Connect user1 as the sender and user2 as the receiver
+        outUser1.println(Utils.objectToMessage(new Login("sender13")));
+        outUser1.flush();
+        receiveLineWithTimeout(inUser1); //OK
+
+        outUser2.println(Utils.objectToMessage(new Login("receiver13")));
+        outUser2.flush();
+        receiveLineWithTimeout(inUser2); //OK
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        socketUser1.close();
+        socketUser2.close();
+    }
+
+    @Test
+    void TC13_1_relayedTransferArrivesIntact() throws Exception {
+        byte[] data = randomData(300_000);
+
+        FileTransferResp accepted = handshake("photo.png", data.length, null, 0, "none");
+        assertEquals("OK", accepted.status());
+        assertEquals(0, accepted.offset());
+
+        TransferUtils.Received received = relay(accepted.transferId(), data, 0, accepted.codec(), -1);
+        assertEquals("png", received.header().extension());
+        assertEquals(0, received.header().rangeStart());
+        assertArrayEquals(data, received.data());
+    }
+
+    @Test
+    void TC13_2_relayedTransferResumesFromTheReceiversOffset() throws Exception {
+        byte[] data = randomData(300_000);
+
+        // The receiver kept part of the file from an earlier attempt, the sender only sends the rest
+        FileTransferResp accepted = handshake("photo.png", data.length, null, 123_456, "none");
+        assertEquals(123_456, accepted.offset());
+
+        TransferUtils.Received received = relay(accepted.transferId(), data, (int) accepted.offset(),
+                accepted.codec(), -1);
+        assertEquals(123_456, received.header().rangeStart());
+        assertEquals(data.length, received.header().rangeEnd());
+        assertArrayEquals(Arrays.copyOfRange(data, 123_456, data.length), received.data());
+    }
+
+    @Test
+    void TC13_3_relayedTransferWithCorruptedChunkIsRejected() throws Exception {
+        byte[] data = randomData(300_000);
+
+        FileTransferResp accepted = handshake("photo.png", data.length, null, 0, "none");
+
+        // One bit flipped after the chunk was checksummed fails its CRC check
+        IOException e = assertThrows(IOException.class,
+                () -> relay(accepted.transferId(), data, 0, accepted.codec(), 200_000));
+        assertTrue(e.getMessage().contains("CRC32C"), e.getMessage());
+    }
+
+    @Test
+    void TC13_4_transferConnectionWithInvalidRoleIsClosed() throws IOException {
+        try (Socket socket = TransferUtils.connect(props.getProperty("host"),
+                Integer.parseInt(props.getProperty("transfer_port")), 'X', UUID.randomUUID(), 0)) {
+            int read = assertTimeoutPreemptively(ofMillis(max_transfer_time_ms), () -> socket.getInputStream().read());
+            assertEquals(-1, read);
+        }
+    }
+
+    @Test
+    void TC13_5_parallelStreamsEachCarryTheirRange() throws Exception {
+        byte[] data = randomData(300_000);
+
+        FileTransferResp accepted = handshake("photo.png", data.length, null, 0, "none", 2);
+        assertEquals(2, accepted.streams());
+
+        // Stream i carries [bounds[i], bounds[i + 1]), both are relayed at the same time
+        long[] bounds = ChunkedTransfer.split(0, data.length, 2, TransferUtils.CHUNK_BYTES);
+        String host = props.getProperty("host");
+        int port = Integer.parseInt(props.getProperty("transfer_port"));
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            List<CompletableFuture<TransferUtils.Received>> streams = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Socket receiver = TransferUtils.connect(host, port, 'R', accepted.transferId(), i);
+                Socket sender = TransferUtils.connect(host, port, 'S', accepted.transferId(), i);
+                sockets.add(receiver);
+                sockets.add(sender);
+
+                int start = (int) bounds[i];
+                int end = (int) bounds[i + 1];
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        TransferUtils.sendStream(sender.getOutputStream(), "png", data, start, end, "none", -1);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                streams.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return TransferUtils.receiveStream(receiver.getInputStream());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < 2; i++) {
+                CompletableFuture<TransferUtils.Received> stream = streams.get(i);
+                TransferUtils.Received received = assertTimeoutPreemptively(ofMillis(max_transfer_time_ms),
+                        () -> stream.get());
+                assertEquals(bounds[i], received.header().rangeStart());
+                assertEquals(bounds[i + 1], received.header().rangeEnd());
+                assertArrayEquals(Arrays.copyOfRange(data, (int) bounds[i], (int) bounds[i + 1]), received.data());
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    void TC13_6_onlyTheReceiverCanAnswerAnOffer() throws IOException {
+        outUser1.println(Utils.objectToMessage(FileTransferReq.relay("receiver13", "photo.png", 1000,
+                UUID.randomUUID(), null)));
+        outUser1.flush();
+        FileTransferReq offered = Utils.messageToObject(receiveMessageWithTimeout(inUser2, "FILE_TRANSFER_REQUEST"));
+
+        // The sender cannot accept its own offer
+        outUser1.println(Utils.objectToMessage(FileTransferResp.accept(offered, 0, "none")));
+        outUser1.flush();
+        FileTransferResp rejected = Utils.messageToObject(receiveMessageWithTimeout(inUser1, "FILE_TRANSFER_RESPONSE"));
+        assertEquals("ERROR", rejected.status());
+        assertEquals(6006, rejected.code());
+
+        // The answer goes to the user who made the offer, and is charged to them, whoever it names
+        outUser2.println(Utils.objectToMessage(new FileTransferResp("OK", 0, "someone_else", offered.transferId(),
+                0, 1, "none")));
+        outUser2.flush();
+        FileTransferResp accepted = Utils.messageToObject(receiveMessageWithTimeout(inUser1, "FILE_TRANSFER_RESPONSE"));
+        assertEquals("sender13", accepted.sender());
+        assertEquals(offered.transferId(), accepted.transferId());
+    }
+
+    @Test
+    void TC13_7_lzCompressedTransferArrivesIntact() throws Exception {
+        byte[] data = textData(300_000);
+
+        FileTransferResp accepted = handshake("notes.txt", data.length, List.of("lz"), 0, "lz");
+        assertEquals("lz", accepted.codec());
+
+        TransferUtils.Received received = relay(accepted.transferId(), data, 0, accepted.codec(), -1);
+        assertEquals("lz", received.header().codec());
+        assertArrayEquals(data, received.data());
+    }
+
+    @Test
+    void TC13_8_deflateCompressedTransferArrivesIntact() throws Exception {
+        byte[] data = textData(300_000);
+
+        FileTransferResp accepted = handshake("notes.txt", data.length, List.of("deflate"), 0, "deflate");
+        assertEquals("deflate", accepted.codec());
+
+        TransferUtils.Received received = relay(accepted.transferId(), data, 0, accepted.codec(), -1);
+        assertEquals("deflate", received.header().codec());
+        assertArrayEquals(data, received.data());
+    }
+
+    @Test
+    void TC13_9_spooledTransferWithUnsupportedCodecFallsBackToNone() throws IOException {
+        // The server picks the codec of a spooled transfer from the ones the sender offered
+        outUser1.println(Utils.objectToMessage(FileTransferReq.spool(List.of("receiver13"), "notes.txt", 1000,
+                UUID.randomUUID(), null).withCodecs(List.of("zstd", "lz"))));
+        outUser1.flush();
+
+        FileTransferResp response = Utils.messageToObject(receiveMessageWithTimeout(inUser1, "FILE_TRANSFER_RESPONSE"));
+        assertEquals("SPOOL", response.status());
+        assertEquals("lz", response.codec());
+
+        outUser1.println(Utils.objectToMessage(FileTransferReq.spool(List.of("receiver13"), "notes.txt", 1000,
+                UUID.randomUUID(), null).withCodecs(List.of("zstd"))));
+        outUser1.flush();
+
+        response = Utils.messageToObject(receiveMessageWithTimeout(inUser1, "FILE_TRANSFER_RESPONSE"));
+        assertEquals("SPOOL", response.status());
+        assertEquals("none", response.codec());
+    }
+
+    /**
+     * Offers a file from user1 to user2, and lets user2 accept it.
+     *
+     * @return The response user1 got.
+     */
+    private FileTransferResp handshake(String filename, long size, List<String> codecs, long offset, String codec)
+            throws IOException {
+        return handshake(filename, size, codecs, offset, codec, 1);
+    }
+
+    /**
+     * Like {@link #handshake(String, long, List, long, String)}, with user2 asking for the file in that many
+     * parallel streams.
+     */
+    private FileTransferResp handshake(String filename, long size, List<String> codecs, long offset, String codec,
+                                       int streams) throws IOException {
+        outUser1.println(Utils.objectToMessage(FileTransferReq.relay("receiver13", filename, size,
+                UUID.randomUUID(), codecs)));
+        outUser1.flush();
+
+        FileTransferReq offered = Utils.messageToObject(receiveMessageWithTimeout(inUser2, "FILE_TRANSFER_REQUEST"));
+        assertEquals("sender13", offered.sender());
+        assertEquals(filename, offered.filename());
+        assertEquals(size, offered.size());
+
+        outUser2.println(Utils.objectToMessage(FileTransferResp.accept(offered, offset, codec, streams)));
+        outUser2.flush();
+
+        FileTransferResp accepted = Utils.messageToObject(receiveMessageWithTimeout(inUser1, "FILE_TRANSFER_RESPONSE"));
+        assertEquals(offered.transferId(), accepted.transferId());
+        return accepted;
+    }
+
+    /**
+     * Sends {@code data[start, data.length)} through the transfer port and reads it on the other side.
+     */
+    private TransferUtils.Received relay(UUID transferId, byte[] data, int start, String codec, int corruptAt)
+            throws IOException {
+        String host = props.getProperty("host");
+        int port = Integer.parseInt(props.getProperty("transfer_port"));
+        try (Socket receiver = TransferUtils.connect(host, port, 'R', transferId, 0);
+             Socket sender = TransferUtils.connect(host, port, 'S', transferId, 0)) {
+            CompletableFuture<Void> sending = CompletableFuture.runAsync(() -> {
+                try {
+                    TransferUtils.sendStream(sender.getOutputStream(), "png", data, start, codec, corruptAt);
+                } catch (IOException e) {
+                    // The receiver hangs up on a corrupt stream
+                }
+            });
+
+            TransferUtils.Received received = assertTimeoutPreemptively(ofMillis(max_transfer_time_ms),
+                    () -> TransferUtils.receiveStream(receiver.getInputStream()));
+            sending.join();
+            return received;
+        }
+    }
+
+    private static byte[] randomData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] textData(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; text.length() < length; line++) {
+            text.append("Line ").append(line).append(" of the meeting notes, nothing much happened.\n");
+        }
+        return Arrays.copyOf(text.toString().getBytes(StandardCharsets.US_ASCII), length);
+    }
+
+    /**
+     * Reads lines until one with the header, skipping other traffic like JOINED or FILE_TRANSFER_PROGRESS.
+     */
+    private String receiveMessageWithTimeout(BufferedReader reader, String header) {
+        return assertTimeoutPreemptively(ofMillis(max_transfer_time_ms), () -> {
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.startsWith(header + " "));
+            return line;
+        });
+    }
+
+    private String receiveLineWithTimeout(BufferedReader reader) {
+        return assertTimeoutPreemptively(ofMillis(max_delta_allowed_ms), reader::readLine);
+    }
+
+}
@@ -0,0 +1,113 @@
+package protocoltests;
+
+import org.junit.jupiter.api.*;
+import protocoltests.protocol.messages.*;
+import protocoltests.protocol.utils.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import static java.time.Duration.ofMillis;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameLimitTests {
+
+    private static Properties props = new Properties();
+    private Socket socketUser1;
+    private BufferedReader inUser1;
+    private PrintWriter outUser1;
+    private final static int max_delta_allowed_ms = 100;
+    private final static int max_disconnect_time_ms = 2000;
+
+    @BeforeAll
+    static void setupAll() throws IOException {
+        InputStream in = FrameLimitTests.class.getResourceAsStream("testconfig.properties");
+        props.load(in);
+        in.close();
+    }
+
+    @BeforeEach
+    void setup() throws IOException {
+        socketUser1 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser1 = new BufferedReader(new InputStreamReader(socketUser1.getInputStream()));
+        outUser1 = new PrintWriter(socketUser1.getOutputStream(), true);
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        socketUser1.close();
+    }
+
+    @Test
+    void TC11_1_frameJustUnderTheLimitIsAccepted() throws IOException {
+        int maxFrameBytes = Integer.parseInt(props.getProperty("max_frame_bytes"));
+        receiveLineWithTimeout(inUser1); //WELCOME
+
+        // Connect user1
+        outUser1.println(Utils.objectToMessage(new Login("frame11")));
+        outUser1.flush();
+        receiveLineWithTimeout(inUser1); //OK
+
+        // The frame, with its header and line ending, stays within the limit
+        String message = "x".repeat(maxFrameBytes - 100);
+        outUser1.println(Utils.objectToMessage(new BroadcastReq(message)));
+        outUser1.flush();
+
+        BroadcastResp broadcastResp = Utils.messageToObject(receiveLineWithTimeout(inUser1));
+        assertEquals("OK", broadcastResp.status());
+    }
+
+    @Test
+    void TC11_2_unterminatedFrameOverTheLimitDisconnects() throws IOException {
+        int maxFrameBytes = Integer.parseInt(props.getProperty("max_frame_bytes"));
+        receiveLineWithTimeout(inUser1); //WELCOME
+
+        // Connect user1
+        outUser1.println(Utils.objectToMessage(new Login("frame11")));
+        outUser1.flush();
+        receiveLineWithTimeout(inUser1); //OK
+
+        // No line ending ever comes, the server gives up once the frame outgrows the limit
+        outUser1.print("BROADCAST_REQ " + "x".repeat(maxFrameBytes + 1024));
+        outUser1.flush();
+
+        Dscn dscn = Utils.messageToObject(receiveLineWithTimeout(inUser1, max_disconnect_time_ms));
+        assertEquals("ERROR", dscn.status());
+        assertEquals(7001, dscn.code());
+        assertNull(receiveLineWithTimeout(inUser1, max_disconnect_time_ms));
+    }
+
+    @Test
+    void TC11_3_frameSplitAcrossWritesUnderTheLimitIsAccepted() throws IOException, InterruptedException {
+        int maxFrameBytes = Integer.parseInt(props.getProperty("max_frame_bytes"));
+        receiveLineWithTimeout(inUser1); //WELCOME
+
+        // Connect user1
+        outUser1.println(Utils.objectToMessage(new Login("frame11")));
+        outUser1.flush();
+        receiveLineWithTimeout(inUser1); //OK
+
+        // Only the frame being read counts against the limit, not everything read since the last one
+        String frame = Utils.objectToMessage(new BroadcastReq("y".repeat(maxFrameBytes / 2)));
+        for (int i = 0; i < 3; i++) {
+            outUser1.print(frame.substring(0, frame.length() / 2));
+            outUser1.flush();
+            Thread.sleep(20);
+            outUser1.println(frame.substring(frame.length() / 2));
+            outUser1.flush();
+
+            BroadcastResp broadcastResp = Utils.messageToObject(receiveLineWithTimeout(inUser1));
+            assertEquals("OK", broadcastResp.status());
+        }
+    }
+
+    private String receiveLineWithTimeout(BufferedReader reader) {
+        return receiveLineWithTimeout(reader, max_delta_allowed_ms);
+    }
+
+    private String receiveLineWithTimeout(BufferedReader reader, int timeoutMs) {
+        return assertTimeoutPreemptively(ofMillis(timeoutMs), reader::readLine);
+    }
+
+}
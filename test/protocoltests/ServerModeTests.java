@@ -0,0 +1,130 @@
+package protocoltests;
+
+import org.junit.jupiter.api.*;
+import protocoltests.protocol.messages.*;
+import protocoltests.protocol.utils.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import static java.time.Duration.ofMillis;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The server behaves the same whichever way it handles its connections, so these tests are meant to be run
+ * against each mode: {@code thread}, {@code nio} and {@code virtual}.
+ */
+class ServerModeTests {
+
+    private static Properties props = new Properties();
+    private static final int CLIENTS = 50;
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<BufferedReader> readers = new ArrayList<>();
+    private final List<PrintWriter> writers = new ArrayList<>();
+    private final static int max_delta_allowed_ms = 100;
+    private final static int max_broadcast_time_ms = 2000;
+
+    @BeforeAll
+    static void setupAll() throws IOException {
+        InputStream in = ServerModeTests.class.getResourceAsStream("testconfig.properties");
+        props.load(in);
+        in.close();
+    }
+
+    @BeforeEach
+    void setup() throws IOException {
+        for (int i = 0; i < CLIENTS; i++) {
+            Socket socket = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+            sockets.add(socket);
+            readers.add(new BufferedReader(new InputStreamReader(socket.getInputStream())));
+            writers.add(new PrintWriter(socket.getOutputStream(), true));
+        }
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Test
+    void TC10_1_manyConcurrentClientsAllReceiveABroadcast() throws IOException {
+        // Log every client in before reading anything, so the server has them all open at once
+        for (int i = 0; i < CLIENTS; i++) {
+            writers.get(i).println(Utils.objectToMessage(new Login("mode10_" + i)));
+        }
+        for (int i = 0; i < CLIENTS; i++) {
+            receiveLineWithTimeout(readers.get(i)); //WELCOME
+            LoginResp loginResp = Utils.messageToObject(receiveMessageWithTimeout(readers.get(i), "LOGIN_RESP"));
+            assertEquals("OK", loginResp.getStatus());
+        }
+
+        writers.get(0).println(Utils.objectToMessage(new BroadcastReq("hello everyone")));
+        BroadcastResp broadcastResp = Utils.messageToObject(receiveMessageWithTimeout(readers.get(0), "BROADCAST_RESP"));
+        assertEquals("OK", broadcastResp.status());
+
+        for (int i = 1; i < CLIENTS; i++) {
+            Broadcast broadcast = Utils.messageToObject(receiveMessageWithTimeout(readers.get(i), "BROADCAST"));
+            assertEquals(new Broadcast("mode10_0", "{\"message\":\"hello everyone\"}"), broadcast);
+        }
+    }
+
+    @Test
+    void TC10_2_pipelinedRequestsAreAnsweredInOrder() throws IOException {
+        receiveLineWithTimeout(readers.get(0)); //WELCOME
+
+        // A login and three broadcasts in a single write
+        String requests = Utils.objectToMessage(new Login("mode10_pipe")) + "\n" +
+                Utils.objectToMessage(new BroadcastReq("one")) + "\n" +
+                Utils.objectToMessage(new BroadcastReq("two")) + "\n" +
+                Utils.objectToMessage(new BroadcastReq("three")) + "\n";
+        sockets.get(0).getOutputStream().write(requests.getBytes());
+
+        LoginResp loginResp = Utils.messageToObject(receiveLineWithTimeout(readers.get(0)));
+        assertEquals("OK", loginResp.getStatus());
+        for (int i = 0; i < 3; i++) {
+            BroadcastResp broadcastResp = Utils.messageToObject(receiveLineWithTimeout(readers.get(0)));
+            assertEquals("OK", broadcastResp.status());
+        }
+    }
+
+    @Test
+    void TC10_3_clientDroppingMidFrameDoesNotAffectOthers() throws IOException {
+        for (int i = 0; i < 2; i++) {
+            receiveLineWithTimeout(readers.get(i)); //WELCOME
+            writers.get(i).println(Utils.objectToMessage(new Login("mode10_" + i)));
+            receiveLineWithTimeout(readers.get(i)); //OK
+        }
+
+        // Client 3 hangs up halfway through a frame
+        receiveLineWithTimeout(readers.get(2)); //WELCOME
+        sockets.get(2).getOutputStream().write("BROADCAST_REQ {\"message\":\"cut o".getBytes());
+        sockets.get(2).close();
+
+        writers.get(0).println(Utils.objectToMessage(new BroadcastReq("still here")));
+        BroadcastResp broadcastResp = Utils.messageToObject(receiveMessageWithTimeout(readers.get(0), "BROADCAST_RESP"));
+        assertEquals("OK", broadcastResp.status());
+        Broadcast broadcast = Utils.messageToObject(receiveMessageWithTimeout(readers.get(1), "BROADCAST"));
+        assertEquals(new Broadcast("mode10_0", "{\"message\":\"still here\"}"), broadcast);
+    }
+
+    /**
+     * Reads lines until one with the header, skipping other traffic like JOINED.
+     */
+    private String receiveMessageWithTimeout(BufferedReader reader, String header) {
+        return assertTimeoutPreemptively(ofMillis(max_broadcast_time_ms), () -> {
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.startsWith(header + " "));
+            return line;
+        });
+    }
+
+    private String receiveLineWithTimeout(BufferedReader reader) {
+        return assertTimeoutPreemptively(ofMillis(max_delta_allowed_ms), reader::readLine);
+    }
+
+}
@@ -0,0 +1,153 @@
+package protocoltests;
+
+import org.junit.jupiter.api.*;
+import protocoltests.protocol.messages.*;
+import protocoltests.protocol.utils.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import static java.time.Duration.ofMillis;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Expects the server to run with its default slow consumer policy, which drops the oldest broadcasts queued
+ * for a client that does not keep up, but never its direct messages.
+ */
+class SlowConsumerTests {
+
+    private static Properties props = new Properties();
+    private static final int BROADCASTS = 4000;
+    private Socket socketUser1, socketUser2;
+    private BufferedReader inUser1, inUser2;
+    private PrintWriter outUser1, outUser2;
+    private final static int max_delta_allowed_ms = 100;
+    private final static int max_flood_time_ms = 5000;
+
+    @BeforeAll
+    static void setupAll() throws IOException {
+        InputStream in = SlowConsumerTests.class.getResourceAsStream("testconfig.properties");
+        props.load(in);
+        in.close();
+    }
+
+    @BeforeEach
+    void setup() throws IOException {
+        socketUser1 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser1 = new BufferedReader(new InputStreamReader(socketUser1.getInputStream()));
+        outUser1 = new PrintWriter(socketUser1.getOutputStream(), true);
+
+        // A small receive buffer, so a reader that stalls soon backs up into the server's queue
+        socketUser2 = new Socket();
+        socketUser2.setReceiveBufferSize(4096);
+        socketUser2.connect(new InetSocketAddress(props.getProperty("host"), Integer.parseInt(props.getProperty("port"))));
+        inUser2 = new BufferedReader(new InputStreamReader(socketUser2.getInputStream()));
+        outUser2 = new PrintWriter(socketUser2.getOutputStream(), true);
+
+        receiveLineWithTimeout(inUser1); //WELCOME
+        receiveLineWithTimeout(inUser2); //WELCOME
+
+        // Connect user1, who floods, and user2, who reads
+        outUser1.println(Utils.objectToMessage(new Login("flooder12")));
+        outUser1.flush();
+        receiveLineWithTimeout(inUser1); //OK
+
+        outUser2.println(Utils.objectToMessage(new Login("reader12")));
+        outUser2.flush();
+        receiveLineWithTimeout(inUser2); //OK
+        receiveLineWithTimeout(inUser1); //JOINED
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        socketUser1.close();
+        socketUser2.close();
+    }
+
+    @Test
+    void TC12_1_readerThatKeepsUpReceivesEveryBroadcastInOrder() throws IOException {
+        int count = 200;
+        for (int i = 0; i < count; i++) {
+            outUser1.println(Utils.objectToMessage(new BroadcastReq("b" + i)));
+        }
+        outUser1.flush();
+
+        List<Integer> received = assertTimeoutPreemptively(ofMillis(max_flood_time_ms), () -> {
+            List<Integer> numbers = new ArrayList<>();
+            while (numbers.size() < count) {
+                String line = inUser2.readLine();
+                if (line.startsWith("BROADCAST ")) {
+                    numbers.add(broadcastNumber(line));
+                }
+            }
+            return numbers;
+        });
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, received.get(i));
+        }
+    }
+
+    @Test
+    void TC12_2_stalledReaderLosesOldestBroadcastsButNotDirectMessages() throws Exception {
+        // The flooder's own responses are read as they come, so only user2 falls behind
+        Thread drain = new Thread(() -> {
+            try {
+                while (inUser1.readLine() != null) {
+                }
+            } catch (IOException e) {
+                // Closed by the cleanup
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+
+        String padding = "p".repeat(2000);
+        for (int i = 0; i < BROADCASTS; i++) {
+            outUser1.println(Utils.objectToMessage(new BroadcastReq("b" + i + " " + padding)));
+        }
+        outUser1.println(Utils.objectToMessage(new PrivateMessageReq("reader12", "still there?")));
+        outUser1.flush();
+
+        // Only now user2 starts reading again; the direct message may overtake the queued broadcasts
+        Thread.sleep(500);
+        List<Integer> received = new ArrayList<>();
+        String privateMessage = assertTimeoutPreemptively(ofMillis(max_flood_time_ms), () -> {
+            String message = null;
+            while (message == null || received.isEmpty() || received.get(received.size() - 1) < BROADCASTS - 1) {
+                String line = inUser2.readLine();
+                if (line.startsWith("PRIVATE_MESSAGE ")) {
+                    message = line;
+                } else if (line.startsWith("BROADCAST ")) {
+                    received.add(broadcastNumber(line));
+                }
+            }
+            return message;
+        });
+
+        assertTrue(privateMessage.contains("still there?"), privateMessage);
+        assertTrue(received.size() < BROADCASTS, "received " + received.size() + " broadcasts");
+        for (int i = 1; i < received.size(); i++) {
+            assertTrue(received.get(i - 1) < received.get(i));
+        }
+    }
+
+    /**
+     * @return The number the flooder put at the start of the broadcast.
+     */
+    private static int broadcastNumber(String line) throws IOException {
+        Broadcast broadcast = Utils.messageToObject(line);
+        String message = broadcast.message();
+        int start = message.indexOf("\"b") + 2;
+        int end = start;
+        while (end < message.length() && Character.isDigit(message.charAt(end))) {
+            end++;
+        }
+        return Integer.parseInt(message.substring(start, end));
+    }
+
+    private String receiveLineWithTimeout(BufferedReader reader) {
+        return assertTimeoutPreemptively(ofMillis(max_delta_allowed_ms), reader::readLine);
+    }
+
+}
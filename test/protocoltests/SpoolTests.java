@@ -0,0 +1,321 @@
+package protocoltests;
+
+import org.junit.jupiter.api.*;
+import protocoltests.protocol.messages.*;
+import protocoltests.protocol.utils.*;
+
+import java.io.*;
+import java.net.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static java.time.Duration.ofMillis;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpoolTests {
+
+    private static Properties props = new Properties();
+    private Socket socketUser1, socketUser2, socketUser3;
+    private BufferedReader inUser1, inUser2, inUser3;
+    private PrintWriter outUser1, outUser2, outUser3;
+    private final static int max_delta_allowed_ms = 100;
+    private final static int max_transfer_time_ms = 5000;
+
+    @BeforeAll
+    static void setupAll() throws IOException {
+        InputStream in = SpoolTests.class.getResourceAsStream("testconfig.properties");
+        props.load(in);
+        in.close();
+    }
+
+    @BeforeEach
+    void setup() throws IOException {
+        socketUser1 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser1 = new BufferedReader(new InputStreamReader(socketUser1.getInputStream()));
+        outUser1 = new PrintWriter(socketUser1.getOutputStream(), true);
+
+        socketUser2 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser2 = new BufferedReader(new InputStreamReader(socketUser2.getInputStream()));
+        outUser2 = new PrintWriter(socketUser2.getOutputStream(), true);
+
+        socketUser3 = new Socket(props.getProperty("host"), Integer.parseInt(props.getProperty("port")));
+        inUser3 = new BufferedReader(new InputStreamReader(socketUser3.getInputStream()));
+        outUser3 = new PrintWriter(socketUser3.getOutputStream(), true);
+
+        receiveLineWithTimeout(inUser1); //WELCOME
+        receiveLineWithTimeout(inUser2); //WELCOME
+        receiveLineWithTimeout(inUser3); //WELCOME
+
+        // Connect user1, the uploader; the receivers log in when the test needs them
+        outUser1.println(Utils.objectToMessage(new Login("uploader14")));
+        outUser1.flush();
+        receiveLineWithTimeout(inUser1); //OK
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        socketUser1.close();
+        socketUser2.close();
+        socketUser3.close();
+    }
+
+    @Test
+    void TC14_1_spooledFileIsDeliveredWhenReceiverLogsIn() throws Exception {
+        byte[] data = randomData(300_000);
+
+        // Receiver 2 is offline, the file is uploaded to the server instead
+        FileTransferResp response = spool(FileTransferReq.spool(List.of("receiver14a"), "report.pdf", data.length,
+                UUID.randomUUID(), null));
+        assertEquals("SPOOL", response.status());
+        upload(response.transferId(), data, response.codec());
+
+        login(outUser2, inUser2, "receiver14a");
+        FileTransferReq offered = Utils.messageToObject(receiveMessageWithTimeout(inUser2, "FILE_TRANSFER_REQUEST"));
+        assertTrue(offered.spool());
+        assertEquals("uploader14", offered.sender());
+        assertEquals("report.pdf", offered.filename());
+        assertNotEquals(response.transferId(), offered.transferId());
+
+        TransferUtils.Received received = download(outUser2, offered, 0);
+        assertEquals("pdf", received.header().extension());
+        assertEquals(0, received.header().rangeStart());
+        assertArrayEquals(data, received.data());
+    }
+
+    @Test
+    void TC14_2_spooledDownloadResumesFromTheReceiversOffset() throws Exception {
+        byte[] data = randomData(300_000);
+
+        FileTransferResp response = spool(FileTransferReq.spool(List.of("receiver14a"), "report.pdf", data.length,
+                UUID.randomUUID(), null));
+        upload(response.transferId(), data, response.codec());
+
+        login(outUser2, inUser2, "receiver14a");
+        FileTransferReq offered = Utils.messageToObject(receiveMessageWithTimeout(inUser2, "FILE_TRANSFER_REQUEST"));
+
+        // The download starts at a chunk at or before the offset, and its digest only covers what is sent
+        TransferUtils.Received received = download(outUser2, offered, 100_000);
+        long rangeStart = received.header().rangeStart();
+        assertTrue(rangeStart > 0 && rangeStart <= 100_000, "rangeStart " + rangeStart);
+        assertArrayEquals(Arrays.copyOfRange(data, (int) rangeStart, data.length), received.data());
+    }
+
+    @Test
+    void TC14_3_spoolToSelfReturnsError() throws IOException {
+        FileTransferResp response = spool(FileTransferReq.spool(List.of("receiver14a", "uploader14"), "report.pdf",
+                1000, UUID.randomUUID(), null));
+        assertEquals("ERROR", response.status());
+        assertEquals(6007, response.code());
+    }
+
+    @Test
+    void TC14_4_spoolOverQuotaReturnsError() throws IOException {
+        long quota = Long.parseLong(props.getProperty("spool_quota_bytes"));
+
+        FileTransferResp response = spool(FileTransferReq.spool(List.of("receiver14a"), "huge.iso", quota + 1,
+                UUID.randomUUID(), null));
+        assertEquals("ERROR", response.status());
+        assertEquals(6009, response.code());
+    }
+
+    @Test
+    void TC14_5_uploadedFileIsServedFromCacheToItsUploaderOnly() throws Exception {
+        byte[] data = randomData(300_000);
+        String contentHash = sha256(data);
+        login(outUser2, inUser2, "receiver14a");
+        login(outUser3, inUser3, "receiver14b");
+
+        FileTransferResp response = spool(FileTransferReq.spool(List.of("receiver14a"), "report.pdf", data.length,
+                UUID.randomUUID(), contentHash));
+        assertEquals("SPOOL", response.status());
+        upload(response.transferId(), data, response.codec());
+
+        // The server only hangs up on a download once the upload is stored, and so cached
+        FileTransferReq offered = Utils.messageToObject(receiveMessageWithTimeout(inUser2, "FILE_TRANSFER_REQUEST"));
+        assertArrayEquals(data, download(outUser2, offered, 0).data());
+
+        // Sending the same content again does not need an upload
+        response = spool(FileTransferReq.spool(List.of("receiver14b"), "copy.pdf", data.length, UUID.randomUUID(),
+                contentHash));
+        assertEquals("CACHED", response.status());
+        offered = Utils.messageToObject(receiveMessageWithTimeout(inUser3, "FILE_TRANSFER_REQUEST"));
+        assertEquals("copy.pdf", offered.filename());
+        assertArrayEquals(data, download(outUser3, offered, 0).data());
+
+        // A wrong size does not match the cached content
+        response = spool(FileTransferReq.spool(List.of("receiver14b"), "copy.pdf", data.length + 1, UUID.randomUUID(),
+                contentHash));
+        assertEquals("SPOOL", response.status());
+
+        // Knowing the hash does not give another user the content
+        outUser2.println(Utils.objectToMessage(FileTransferReq.spool(List.of("receiver14b"), "copy.pdf", data.length,
+                UUID.randomUUID(), contentHash)));
+        outUser2.flush();
+        response = Utils.messageToObject(receiveMessageWithTimeout(inUser2, "FILE_TRANSFER_RESPONSE"));
+        assertEquals("SPOOL", response.status());
+    }
+
+    @Test
+    void TC14_6_corruptedUploadIsNotDeliveredNorCached() throws Exception {
+        byte[] data = randomData(300_000);
+        String contentHash = sha256(data);
+        login(outUser2, inUser2, "receiver14a");
+
+        FileTransferResp response = spool(FileTransferReq.spool(List.of("receiver14a"), "report.pdf", data.length,
+                UUID.randomUUID(), contentHash));
+        assertEquals("SPOOL", response.status());
+
+        // The last chunk is corrupted, and held back until the receiver is downloading
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        TransferUtils.sendStream(stream, "pdf", data, 0, response.codec(), data.length - 1);
+        byte[] bytes = stream.toByteArray();
+        int held = data.length % TransferUtils.CHUNK_BYTES + 1024;
+
+        try (Socket uploader = TransferUtils.connect(props.getProperty("host"),
+                Integer.parseInt(props.getProperty("transfer_port")), 'U', response.transferId(), 0)) {
+            uploader.getOutputStream().write(bytes, 0, bytes.length - held);
+            uploader.getOutputStream().flush();
+
+            FileTransferReq offered = Utils.messageToObject(receiveMessageWithTimeout(inUser2, "FILE_TRANSFER_REQUEST"));
+            outUser2.println(Utils.objectToMessage(FileTransferResp.accept(offered, 0, null)));
+            outUser2.flush();
+            try (Socket receiver = TransferUtils.connect(props.getProperty("host"),
+                    Integer.parseInt(props.getProperty("transfer_port")), 'R', offered.transferId(), 0)) {
+                PushbackInputStream in = new PushbackInputStream(receiver.getInputStream());
+                int first = assertTimeoutPreemptively(ofMillis(max_transfer_time_ms), () -> in.read());
+                assertNotEquals(-1, first);
+                in.unread(first);
+
+                uploader.getOutputStream().write(bytes, bytes.length - held, held);
+                uploader.shutdownOutput();
+
+                assertThrows(IOException.class, () -> assertTimeoutPreemptively(ofMillis(max_transfer_time_ms),
+                        () -> TransferUtils.receiveStream(in)));
+                // The server hangs up once it has dropped the upload
+                assertTimeoutPreemptively(ofMillis(max_transfer_time_ms), () -> {
+                    while (in.read() >= 0) {
+                    }
+                });
+            }
+        }
+
+        response = spool(FileTransferReq.spool(List.of("receiver14a"), "report.pdf", data.length, UUID.randomUUID(),
+                contentHash));
+        assertEquals("SPOOL", response.status());
+    }
+
+    @Test
+    void TC14_7_spooledFileIsDeliveredToEveryReceiver() throws Exception {
+        byte[] data = randomData(300_000);
+        login(outUser2, inUser2, "receiver14a");
+        login(outUser3, inUser3, "receiver14b");
+
+        FileTransferResp response = spool(FileTransferReq.spool(List.of("receiver14a", "receiver14b"), "report.pdf",
+                data.length, UUID.randomUUID(), null));
+        assertEquals("SPOOL", response.status());
+        upload(response.transferId(), data, response.codec());
+
+        // Each receiver gets a delivery of its own
+        FileTransferReq offered2 = Utils.messageToObject(receiveMessageWithTimeout(inUser2, "FILE_TRANSFER_REQUEST"));
+        FileTransferReq offered3 = Utils.messageToObject(receiveMessageWithTimeout(inUser3, "FILE_TRANSFER_REQUEST"));
+        assertNotEquals(offered2.transferId(), offered3.transferId());
+
+        assertArrayEquals(data, download(outUser2, offered2, 0).data());
+        assertArrayEquals(data, download(outUser3, offered3, 0).data());
+    }
+
+    @Test
+    void TC14_8_spoolToTooManyReceiversReturnsError() throws IOException {
+        int maxReceivers = Integer.parseInt(props.getProperty("spool_max_receivers"));
+        List<String> receivers = IntStream.rangeClosed(1, maxReceivers + 1).mapToObj(i -> "receiver14_" + i).toList();
+
+        FileTransferResp response = spool(FileTransferReq.spool(receivers, "report.pdf", 1000, UUID.randomUUID(),
+                null));
+        assertEquals("ERROR", response.status());
+        assertEquals(6010, response.code());
+    }
+
+    private void login(PrintWriter out, BufferedReader in, String username) throws IOException {
+        out.println(Utils.objectToMessage(new Login(username)));
+        out.flush();
+        receiveLineWithTimeout(in); //OK
+    }
+
+    /**
+     * Sends the request as user1.
+     *
+     * @return The response of the server.
+     */
+    private FileTransferResp spool(FileTransferReq request) throws IOException {
+        outUser1.println(Utils.objectToMessage(request));
+        outUser1.flush();
+
+        FileTransferResp response = Utils.messageToObject(receiveMessageWithTimeout(inUser1, "FILE_TRANSFER_RESPONSE"));
+        assertEquals(request.transferId(), response.transferId());
+        return response;
+    }
+
+    /**
+     * Uploads the file to the spool, and waits for the server to hang up once it has read all of it. The end of
+     * the upload is marked by closing the output.
+     */
+    private void upload(UUID transferId, byte[] data, String codec) throws IOException {
+        try (Socket socket = TransferUtils.connect(props.getProperty("host"),
+                Integer.parseInt(props.getProperty("transfer_port")), 'U', transferId, 0)) {
+            TransferUtils.sendStream(socket.getOutputStream(), "pdf", data, 0, codec, -1);
+            socket.shutdownOutput();
+            int read = assertTimeoutPreemptively(ofMillis(max_transfer_time_ms), () -> socket.getInputStream().read());
+            assertEquals(-1, read);
+        }
+    }
+
+    /**
+     * Accepts a delivery from the offset on, and downloads it. A download can get the whole stream, trailer
+     * included, before the upload is verified and stored; it waits for the server to hang up, which it only does
+     * once the upload is stored.
+     */
+    private TransferUtils.Received download(PrintWriter out, FileTransferReq offered, long offset) throws IOException {
+        out.println(Utils.objectToMessage(FileTransferResp.accept(offered, offset, null)));
+        out.flush();
+
+        try (Socket socket = TransferUtils.connect(props.getProperty("host"),
+                Integer.parseInt(props.getProperty("transfer_port")), 'R', offered.transferId(), 0)) {
+            return assertTimeoutPreemptively(ofMillis(max_transfer_time_ms), () -> {
+                TransferUtils.Received received = TransferUtils.receiveStream(socket.getInputStream());
+                assertEquals(-1, socket.getInputStream().read());
+                return received;
+            });
+        }
+    }
+
+    private static byte[] randomData(int length) {
+        // Random content, so an earlier run did not leave it in the cache
+        byte[] data = new byte[length];
+        new Random().nextBytes(data);
+        return data;
+    }
+
+    private static String sha256(byte[] data) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    /**
+     * Reads lines until one with the header, skipping other traffic like JOINED or FILE_TRANSFER_PROGRESS.
+     */
+    private String receiveMessageWithTimeout(BufferedReader reader, String header) {
+        return assertTimeoutPreemptively(ofMillis(max_transfer_time_ms), () -> {
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.startsWith(header + " "));
+            return line;
+        });
+    }
+
+    private String receiveLineWithTimeout(BufferedReader reader) {
+        return assertTimeoutPreemptively(ofMillis(max_delta_allowed_ms), reader::readLine);
+    }
+
+}
@@ -0,0 +1,17 @@
+package protocoltests.protocol.messages;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record Dscn(String reason, String status, int code) {
+
+    @Override
+    public String toString() {
+        return "Dscn[" +
+                "reason=" + reason + ", " +
+                "status=" + status + ", " +
+                "code=" + code + ']';
+    }
+
+
+}
@@ -0,0 +1,45 @@
+package protocoltests.protocol.messages;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.UUID;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record FileTransferReq(String sender, String receiver, List<String> receivers, String filename, long size,
+                              UUID transferId, int streams, boolean spool, String contentHash, List<String> codecs) {
+
+    public static FileTransferReq relay(String receiver, String filename, long size, UUID transferId,
+                                        List<String> codecs) {
+        return new FileTransferReq(null, receiver, null, filename, size, transferId, 1, false, null, codecs);
+    }
+
+    public static FileTransferReq spool(List<String> receivers, String filename, long size, UUID transferId,
+                                        String contentHash) {
+        return new FileTransferReq(null, null, receivers, filename, size, transferId, 1, true, contentHash, null);
+    }
+
+    public FileTransferReq withCodecs(List<String> codecs) {
+        return new FileTransferReq(sender, receiver, receivers, filename, size, transferId, streams, spool,
+                contentHash, codecs);
+    }
+
+    @Override
+    public String toString() {
+        return "FileTransferReq[" +
+                "sender=" + sender + ", " +
+                "receiver=" + receiver + ", " +
+                "receivers=" + receivers + ", " +
+                "filename=" + filename + ", " +
+                "size=" + size + ", " +
+                "transferId=" + transferId + ", " +
+                "streams=" + streams + ", " +
+                "spool=" + spool + ", " +
+                "contentHash=" + contentHash + ", " +
+                "codecs=" + codecs + ']';
+    }
+
+
+}
@@ -0,0 +1,34 @@
+package protocoltests.protocol.messages;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record FileTransferResp(String status, int code, String sender, UUID transferId, long offset, int streams,
+                               String codec) {
+
+    public static FileTransferResp accept(FileTransferReq request, long offset, String codec) {
+        return accept(request, offset, codec, 1);
+    }
+
+    public static FileTransferResp accept(FileTransferReq request, long offset, String codec, int streams) {
+        return new FileTransferResp("OK", 0, request.sender(), request.transferId(), offset, streams, codec);
+    }
+
+    @Override
+    public String toString() {
+        return "FileTransferResp[" +
+                "status=" + status + ", " +
+                "code=" + code + ", " +
+                "sender=" + sender + ", " +
+                "transferId=" + transferId + ", " +
+                "offset=" + offset + ", " +
+                "streams=" + streams + ", " +
+                "codec=" + codec + ']';
+    }
+
+
+}
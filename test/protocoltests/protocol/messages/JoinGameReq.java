@@ -3,13 +3,18 @@ package protocoltests.protocol.messages;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
-public record JoinGameReq(String status, int code) {
+public record JoinGameReq(String status, int code, long gameId) {
+
+    public JoinGameReq(String status, int code) {
+        this(status, code, 0);
+    }
 
     @Override
     public String toString() {
         return "JoinGameReq[" +
                 "status=" + status + ", " +
-                "code=" + code + ']';
+                "code=" + code + ", " +
+                "gameId=" + gameId + ']';
     }
 
 
@@ -10,14 +10,21 @@ public final class JoinGameResp {
     private final String status;
     private final int code;
     private final String message;
+    private final long gameId;
+
+    public JoinGameResp(String status, int code, String message) {
+        this(status, code, message, 0);
+    }
 
     @JsonCreator
     public JoinGameResp(@JsonProperty("status") String status,
                         @JsonProperty("code") int code,
-                        @JsonProperty("message") String message) {
+                        @JsonProperty("message") String message,
+                        @JsonProperty("gameId") long gameId) {
         this.status = status;
         this.code = code;
         this.message = message;
+        this.gameId = gameId;
     }
 
     public String status() {
@@ -32,6 +39,10 @@ public final class JoinGameResp {
         return message;
     }
 
+    public long gameId() {
+        return gameId;
+    }
+
     public String getStatus() {
         return status;
     }
@@ -44,25 +55,31 @@ public final class JoinGameResp {
         return message;
     }
 
+    public long getGameId() {
+        return gameId;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
         if (obj == null || obj.getClass() != this.getClass()) return false;
         var that = (JoinGameResp) obj;
         return Objects.equals(this.status, that.status) &&
-                this.code == that.code;
+                this.code == that.code &&
+                this.gameId == that.gameId;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(status, code);
+        return Objects.hash(status, code, gameId);
     }
 
     @Override
     public String toString() {
         return "JoinGameResp[" +
                 "status=" + status + ", " +
-                "code=" + code + ']';
+                "code=" + code + ", " +
+                "gameId=" + gameId + ']';
     }
 
 
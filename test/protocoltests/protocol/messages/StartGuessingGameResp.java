@@ -10,16 +10,23 @@ public final class StartGuessingGameResp {
     private String status;
     private String message;
     private int code;
+    private long gameId;
 
     public StartGuessingGameResp() { }
 
+    public StartGuessingGameResp(String status, int code, String message) {
+        this(status, code, message, 0);
+    }
+
     @JsonCreator
     public StartGuessingGameResp(@JsonProperty("status") String status,
                                  @JsonProperty("code") int code,
-                                 @JsonProperty("message") String message) {
+                                 @JsonProperty("message") String message,
+                                 @JsonProperty("gameId") long gameId) {
         this.status = status;
         this.code = code;
         this.message = message;
+        this.gameId = gameId;
     }
 
     public String status() {
@@ -34,6 +41,10 @@ public final class StartGuessingGameResp {
         return code;
     }
 
+    public long gameId() {
+        return gameId;
+    }
+
     public String getStatus() {
         return status;
     }
@@ -46,6 +57,10 @@ public final class StartGuessingGameResp {
         return code;
     }
 
+    public long getGameId() {
+        return gameId;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
@@ -53,12 +68,13 @@ public final class StartGuessingGameResp {
         var that = (StartGuessingGameResp) obj;
         return Objects.equals(this.status, that.status) &&
                 Objects.equals(this.message, that.message) &&
-                this.code == that.code;
+                this.code == that.code &&
+                this.gameId == that.gameId;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(status, message, code);
+        return Objects.hash(status, message, code, gameId);
     }
 
     @Override
@@ -66,7 +82,8 @@ public final class StartGuessingGameResp {
         return "StartGuessingGameResp[" +
                 "status=" + status + ", " +
                 "message=" + message + ", " +
-                "code=" + code + ']';
+                "code=" + code + ", " +
+                "gameId=" + gameId + ']';
     }
 
 
@@ -0,0 +1,115 @@
+package protocoltests.protocol.utils;
+
+import shared.ChunkedTransfer;
+import shared.TransferCodec;
+import shared.TransferHash;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+public class TransferUtils {
+
+    public static final int CHUNK_BYTES = 64 * 1024;
+
+    /**
+     * Opens a connection to the file transfer port and sends its handshake: the role ('S' sender, 'R' receiver,
+     * 'U' spool upload), the transfer id and the stream index.
+     */
+    public static Socket connect(String host, int port, char role, UUID transferId, int stream) throws IOException {
+        Socket socket = new Socket(host, port);
+        OutputStream out = socket.getOutputStream();
+        out.write(role);
+        out.write(transferId.toString().getBytes(US_ASCII));
+        out.write(stream);
+        out.flush();
+        return socket;
+    }
+
+    /**
+     * Writes {@code data[start, data.length)} as one transfer stream hashed with SHA-256, compressing the chunks
+     * with the codec where that pays off.
+     *
+     * @param corruptAt The index of a byte to flip after its chunk was checksummed, or -1 to send the data intact.
+     */
+    public static void sendStream(OutputStream out, String extension, byte[] data, int start, String codecName,
+                                  int corruptAt) throws IOException {
+        sendStream(out, extension, data, start, data.length, codecName, corruptAt);
+    }
+
+    /**
+     * Writes the range {@code data[start, end)} as one of the parallel streams of a transfer.
+     */
+    public static void sendStream(OutputStream out, String extension, byte[] data, int start, int end,
+                                  String codecName, int corruptAt) throws IOException {
+        DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(out));
+        new ChunkedTransfer.Header(extension, data.length, start, end, CHUNK_BYTES, TransferHash.SHA_256,
+                codecName).writeTo(stream);
+
+        TransferHash hash = TransferHash.of(TransferHash.SHA_256);
+        ByteBuffer chunkHeader = ByteBuffer.allocate(ChunkedTransfer.CHUNK_HEADER_BYTES);
+        byte[] encoded = new byte[CHUNK_BYTES];
+        try (TransferCodec codec = TransferCodec.of(codecName)) {
+            int position = start;
+            while (position < end) {
+                int length = Math.min(CHUNK_BYTES, end - position);
+                byte[] raw = new byte[length];
+                System.arraycopy(data, position, raw, 0, length);
+                hash.update(raw, 0, length);
+
+                // A corrupted chunk is sent raw, so it is the CRC and not the codec that catches it
+                boolean corrupt = corruptAt >= position && corruptAt < position + length;
+                int encodedLength = codec.id() != 0 && !corrupt ? codec.encode(raw, length, encoded) : -1;
+                chunkHeader.clear();
+                ChunkedTransfer.putChunkHeader(chunkHeader, position, ByteBuffer.wrap(raw),
+                        encodedLength < 0 ? 0 : codec.id(), encodedLength < 0 ? length : encodedLength);
+                if (corrupt) {
+                    raw[corruptAt - position] ^= 1;
+                }
+                stream.write(chunkHeader.array(), 0, chunkHeader.position());
+                if (encodedLength < 0) {
+                    stream.write(raw, 0, length);
+                } else {
+                    stream.write(encoded, 0, encodedLength);
+                }
+                position += length;
+            }
+
+            ChunkedTransfer.writeEnd(stream, position);
+        }
+        ChunkedTransfer.writeTrailer(stream, hash.digest());
+        stream.flush();
+    }
+
+    /**
+     * Reads one transfer stream, checking the CRC of every chunk and the digest in the trailer.
+     *
+     * @return The header, and the bytes of the range it announced.
+     * @throws IOException If a chunk or the digest does not check out, or the stream ends early.
+     */
+    public static Received receiveStream(InputStream in) throws IOException {
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(in));
+        ChunkedTransfer.Header header = ChunkedTransfer.Header.readFrom(stream);
+
+        TransferHash hash = header.newHash();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buffer = new byte[header.chunkSize()];
+        try (TransferCodec codec = header.newCodec()) {
+            long position = header.rangeStart();
+            int length;
+            while ((length = ChunkedTransfer.readChunk(stream, position, buffer, codec)) > 0) {
+                hash.update(buffer, 0, length);
+                data.write(buffer, 0, length);
+                position += length;
+            }
+        }
+        ChunkedTransfer.verifyTrailer(stream, hash.digest());
+        return new Received(header, data.toByteArray());
+    }
+
+    public record Received(ChunkedTransfer.Header header, byte[] data) {
+    }
+}
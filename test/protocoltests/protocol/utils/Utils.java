@@ -37,6 +37,9 @@ public class Utils {
         objToNameMapping.put(GuessNumberResp.class, "GUESS_NUMBER_RESP");
         objToNameMapping.put(GameResults.class, "GAME_RESULTS");
         objToNameMapping.put(GameNotification.class, "GAME_NOTIFICATION");
+        objToNameMapping.put(Dscn.class, "DSCN");
+        objToNameMapping.put(FileTransferReq.class, "FILE_TRANSFER_REQUEST");
+        objToNameMapping.put(FileTransferResp.class, "FILE_TRANSFER_RESPONSE");
     }
 
     public static String objectToMessage(Object object) throws JsonProcessingException {